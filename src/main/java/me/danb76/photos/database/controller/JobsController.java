@@ -14,7 +14,12 @@ import me.danb76.photos.database.repositories.CategoriesRepository;
 import me.danb76.photos.database.repositories.JobsRepository;
 import me.danb76.photos.database.tables.Category;
 import me.danb76.photos.database.tables.Job;
+import me.danb76.photos.service.ExifBackfillService;
+import me.danb76.photos.service.JobExecutor;
+import me.danb76.photos.service.JobsService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
@@ -45,6 +50,15 @@ public class JobsController {
     @Autowired
     private MinioClient client;
 
+    @Autowired
+    private JobExecutor jobExecutor;
+
+    @Autowired
+    private JobsService jobsService;
+
+    @Autowired
+    private ExifBackfillService exifBackfill;
+
     @PostMapping(path="/upload")
     public @ResponseBody ResponseEntity<Map<String, String>> postJob(@RequestParam String category, @RequestParam String fileName) {
         Map<String, String> response = new HashMap<>();
@@ -78,6 +92,7 @@ public class JobsController {
         job.setFileName(fileName);
 
         jobsRepository.save(job);
+        jobsService.dispatch(job);
 
         response.put("success", job.getId().toString());
         return new ResponseEntity<>(response, HttpStatus.OK);
@@ -88,4 +103,44 @@ public class JobsController {
         return jobsRepository.findAll();
     }
 
+    @GetMapping(path="/pending")
+    public @ResponseBody ResponseEntity<Map<String, Object>> getPendingJobs(
+            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(defaultValue = "50") int size) {
+        Slice<Job> jobs = jobsRepository.findByProcessingTrueOrderByTimestampAsc(PageRequest.of(page, size));
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("jobs", jobs.getContent());
+        response.put("currentPage", jobs.getNumber());
+        response.put("hasNext", jobs.hasNext());
+        return new ResponseEntity<>(response, HttpStatus.OK);
+    }
+
+    @GetMapping(path="/status")
+    public @ResponseBody ResponseEntity<Map<String, Integer>> getStatus() {
+        Map<String, Integer> response = new HashMap<>();
+        response.put("queued", jobExecutor.getQueueDepth());
+        response.put("inFlight", jobExecutor.getInFlight());
+        return new ResponseEntity<>(response, HttpStatus.OK);
+    }
+
+    @PostMapping(path="/backfill/exif")
+    public @ResponseBody ResponseEntity<Map<String, String>> backfillExif() {
+        Map<String, String> response = new HashMap<>();
+        if (!exifBackfill.start()) {
+            response.put("error", "EXIF backfill is already running.");
+            return new ResponseEntity<>(response, HttpStatus.CONFLICT);
+        }
+        response.put("success", "true");
+        return new ResponseEntity<>(response, HttpStatus.ACCEPTED);
+    }
+
+    @GetMapping(path="/backfill/exif")
+    public @ResponseBody ResponseEntity<Map<String, Object>> getExifBackfillStatus() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("running", exifBackfill.isRunning());
+        response.put("processed", exifBackfill.getProcessed());
+        response.put("failed", exifBackfill.getFailed());
+        return new ResponseEntity<>(response, HttpStatus.OK);
+    }
 }
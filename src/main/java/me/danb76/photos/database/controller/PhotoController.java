@@ -3,8 +3,9 @@ package me.danb76.photos.database.controller;
 import io.minio.GetObjectArgs;
 import io.minio.GetObjectResponse;
 import io.minio.MinioClient;
-import io.minio.PutObjectArgs;
 import io.minio.RemoveObjectArgs;
+import io.minio.StatObjectArgs;
+import io.minio.StatObjectResponse;
 import io.minio.errors.ErrorResponseException;
 import io.minio.errors.InsufficientDataException;
 import io.minio.errors.InternalException;
@@ -14,15 +15,32 @@ import io.minio.errors.XmlParserException;
 import me.danb76.photos.database.repositories.PhotosRepository;
 import me.danb76.photos.database.tables.Photo;
 import me.danb76.photos.service.JobsService;
-import org.imgscalr.Scalr;
+import me.danb76.photos.service.RenditionType;
+import me.danb76.photos.service.RotationService;
+import me.danb76.photos.service.cache.CachedObject;
+import me.danb76.photos.service.cache.DiskObject;
+import me.danb76.photos.service.cache.DiskRenditionCache;
+import me.danb76.photos.service.cache.ObjectKey;
+import me.danb76.photos.service.cache.ObjectMetadata;
+import me.danb76.photos.service.cache.PresignedUrlCache;
+import me.danb76.photos.service.cache.RenditionCache;
+import me.danb76.photos.service.cache.RequestCoalescer;
+import me.danb76.photos.service.image.DecodeBudgetExceededException;
+import me.danb76.photos.service.image.DecodedImage;
+import me.danb76.photos.service.image.ImageDecoder;
+import me.danb76.photos.service.image.Orientation;
+import me.danb76.photos.service.image.OrientationRewriter;
+import me.danb76.photos.service.image.RawPreview;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Pageable;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
@@ -32,23 +50,34 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
+import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 
 @Controller
@@ -56,6 +85,8 @@ import java.util.stream.Collectors;
 @RestController
 public class PhotoController {
     private static final Logger logger = LoggerFactory.getLogger(JobsService.class);
+    private static final String RETRY_AFTER_SECONDS = "5";
+    private static final int MAX_PAGE_SIZE = 100;
 
     @Autowired
     private PhotosRepository repository;
@@ -63,38 +94,85 @@ public class PhotoController {
     @Autowired
     private MinioClient minioClient;
 
+    @Autowired
+    private ImageDecoder imageDecoder;
+
+    @Autowired
+    private RenditionCache renditionCache;
+
+    @Autowired
+    private DiskRenditionCache diskCache;
+
+    @Autowired
+    private RequestCoalescer requestCoalescer;
+
+    @Autowired
+    private PresignedUrlCache presignedUrls;
+
+    @Autowired
+    private RotationService rotationService;
+
+    @Value("${images.decode.http-timeout:5s}")
+    private Duration decodeTimeout;
+
+    @Value("${photos.cache.verify-interval:30s}")
+    private Duration cacheVerifyInterval;
+
+    @Value("${photos.cache-control.low-res:public, max-age=31536000, immutable}")
+    private String lowResCacheControl;
+
+    @Value("${photos.cache-control.high-res:public, max-age=31536000, immutable}")
+    private String highResCacheControl;
+
+    @Value("${photos.cache-control.original:public, no-cache}")
+    private String originalCacheControl;
+
+    @Value("${photos.cache-control.default:no-cache}")
+    private String defaultCacheControl;
+
     @GetMapping("/{categoryId}")
     public ResponseEntity<Map<String, Object>> getPhotosByCategory(
             @PathVariable UUID categoryId,
-            @RequestParam(defaultValue = "0") int page,
-            @RequestParam(defaultValue = "10") int size) {
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "10") int size,
+            @RequestParam(defaultValue = "false") boolean includeTotal) {
+        Map<String, Object> response = new HashMap<>();
+
+        PhotoCursor after = null;
+        if (cursor != null && !cursor.isEmpty()) {
+            after = PhotoCursor.decode(cursor);
+            if (after == null) {
+                response.put("error", "Invalid cursor");
+                return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
+            }
+        }
+        size = Math.max(1, Math.min(size, MAX_PAGE_SIZE));
 
         try {
-            Pageable pageable = PageRequest.of(page, size);
-            Page<Photo> photoPage = repository.findByCategory(categoryId, pageable);
+            // Fetch one extra row to learn whether there is a next page without counting.
+            Limit limit = Limit.of(size + 1);
+            List<Photo> photos = after == null
+                    ? repository.findFirstPage(categoryId, limit)
+                    : repository.findPageAfter(categoryId, after.time(), after.id(), limit);
 
-            if (photoPage.isEmpty()) {
+            if (photos.isEmpty() && after == null) {
                 return new ResponseEntity<>(HttpStatus.NO_CONTENT);
             }
 
-            List<Map<String, Object>> photosResponse = photoPage.getContent().stream()
-                    .map(photo -> {
-                        Map<String, Object> photoInfo = new HashMap<>();
-                        photoInfo.put("id", photo.getId());
-                        photoInfo.put("category", photo.getCategory());
-                        photoInfo.put("lowRes", photo.getLowRes());
-                        photoInfo.put("highRes", photo.getHighRes());
-                        photoInfo.put("fullPhoto", photo.getFullPhoto());
-                        return photoInfo;
-                    })
+            boolean hasNext = photos.size() > size;
+            if (hasNext) {
+                photos = photos.subList(0, size);
+            }
 
+            List<Map<String, Object>> photosResponse = photos.stream()
+                    .map(this::photoInfo)
                     .collect(Collectors.toList());
 
-            Map<String, Object> response = new HashMap<>();
             response.put("photos", photosResponse);
-            response.put("currentPage", photoPage.getNumber());
-            response.put("totalPages", photoPage.getTotalPages());
-            response.put("totalItems", photoPage.getTotalElements());
+            response.put("next", hasNext ? PhotoCursor.byCreated(photos.get(photos.size() - 1)).encode() : null);
+            if (includeTotal) {
+                response.put("totalItems", repository.countByCategory(categoryId));
+            }
 
             return new ResponseEntity<>(response, HttpStatus.OK);
         } catch (Exception e) {
@@ -103,42 +181,194 @@ public class PhotoController {
         }
     }
 
-    @GetMapping(path="/{categoryId}/{fileName}")
-    public ResponseEntity<byte[]> getPhoto(@PathVariable UUID categoryId, @PathVariable String fileName) {
-        GetObjectResponse response = null;
+    @GetMapping("/timeline")
+    public ResponseEntity<Map<String, Object>> getTimeline(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "20") int size) {
+        Map<String, Object> response = new HashMap<>();
+
+        PhotoCursor after = null;
+        if (cursor != null && !cursor.isEmpty()) {
+            after = PhotoCursor.decode(cursor);
+            if (after == null) {
+                response.put("error", "Invalid cursor");
+                return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
+            }
+        }
+        size = Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+
         try {
-            response = minioClient.getObject(GetObjectArgs.builder()
-                    .bucket(categoryId.toString())
-                    .object(fileName).build());
+            Limit limit = Limit.of(size + 1);
+            List<Photo> photos = after == null
+                    ? repository.findTimelineFirstPage(limit)
+                    : repository.findTimelinePageAfter(after.time(), after.id(), limit);
+
+            boolean hasNext = photos.size() > size;
+            if (hasNext) {
+                photos = photos.subList(0, size);
+            }
 
-            try (InputStream inputStream = response) {
-                BufferedImage originalImage = ImageIO.read(inputStream);
-                if (originalImage == null) {
-                    return new ResponseEntity<>(HttpStatus.NOT_FOUND);
-                }
+            response.put("photos", photos.stream().map(this::photoInfo).collect(Collectors.toList()));
+            response.put("next", hasNext ? PhotoCursor.byCaptured(photos.get(photos.size() - 1)).encode() : null);
+            return new ResponseEntity<>(response, HttpStatus.OK);
+        } catch (Exception e) {
+            logger.error("Error retrieving photo timeline: {}", e.getMessage(), e);
+            return new ResponseEntity<>(null, HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
 
-                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-                String fileExtension = getFileExtension(fileName).orElse("jpg");
-                ImageIO.write(originalImage, fileExtension, outputStream);
-                byte[] imageBytes = outputStream.toByteArray();
+    @GetMapping(path="/{categoryId}/{fileName}")
+    public ResponseEntity<StreamingResponseBody> getPhoto(@PathVariable UUID categoryId, @PathVariable String fileName,
+                                                          @RequestHeader HttpHeaders requestHeaders) {
+        String bucket = categoryId.toString();
+
+        // RAW originals carry their orientation as metadata only and are served as stored.
+        if (RenditionType.fromObjectName(fileName) == RenditionType.ORIGINAL && !RawPreview.isRaw(fileName)) {
+            Photo photo = repository.findFirstByCategoryAndFullPhoto(categoryId, fileName).orElse(null);
+            if (photo != null && photo.getRotation() != 0) {
+                return getRotatedOriginal(bucket, fileName, photo, requestHeaders);
+            }
+        }
 
+        // Large objects are handed off to storage so the transfer does not tie up an app thread.
+        if (presignedUrls.redirects(fileName)) {
+            try {
                 HttpHeaders headers = new HttpHeaders();
-                headers.setContentType(MediaType.IMAGE_JPEG);
-                return new ResponseEntity<>(imageBytes, headers, HttpStatus.OK);
+                headers.setLocation(URI.create(presignedUrls.get(bucket, fileName)));
+                headers.setCacheControl(CacheControl.noStore());
+                return new ResponseEntity<>(headers, HttpStatus.FOUND);
+            } catch (Exception e) {
+                logger.warn("Could not presign {} for category {}, proxying instead: {}", fileName, categoryId, e.getMessage());
+            }
+        }
+
+        // Look in memory, then on local disk, then ask MinIO. Cached copies carry their own
+        // metadata, so a hit in either tier needs no round trip to MinIO at all. A miss only
+        // stats the object here; the body is fetched once it is known to be sent.
+        long memoryGeneration = renditionCache.generation();
+        CachedObject cached = renditionCache.get(bucket, fileName);
+        DiskObject onDisk = cached == null ? diskCache.open(bucket, fileName) : null;
+
+        // Both tiers are per node, so a photo deleted through another node (or while this one
+        // was down) is only noticed here. Entries not checked within the interval are looked
+        // up in the database before they are served.
+        long verifyBefore = System.currentTimeMillis() - cacheVerifyInterval.toMillis();
+        if ((cached != null && cached.getVerifiedAt() < verifyBefore) || (onDisk != null && onDisk.getVerifiedAt() < verifyBefore)) {
+            if (!isInUse(categoryId, fileName)) {
+                closeQuietly(onDisk);
+                renditionCache.invalidate(bucket, fileName);
+                diskCache.invalidate(bucket, fileName);
+                return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+            }
+            if (cached != null) {
+                cached.markVerified();
+            } else {
+                diskCache.markVerified(bucket, fileName);
+            }
+        }
 
+        ObjectMetadata metadata;
+        if (cached != null) {
+            metadata = cached.getMetadata();
+        } else if (onDisk != null) {
+            metadata = onDisk.getMetadata();
+        } else {
+            try {
+                StatObjectResponse stat = minioClient.statObject(StatObjectArgs.builder()
+                        .bucket(bucket)
+                        .object(fileName).build());
+                metadata = new ObjectMetadata(stat.etag(), stat.lastModified().toInstant().toEpochMilli(),
+                        stat.contentType(), stat.size());
             } catch (IOException e) {
+                logger.error("Error loading {} for category {}: {}", fileName, categoryId, e.getMessage());
                 return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+            } catch (Exception e) {
+                return new ResponseEntity<>(HttpStatus.NOT_FOUND);
             }
-        } catch (Exception e) {
-            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
-        } finally {
-            if (response != null) {
+        }
+
+        try {
+            // Rendition names change whenever their content does (see RotationService), so the
+            // stored ETag and modification time are safe validators for long-lived caching.
+            // Originals keep their name and are revalidated instead.
+            HttpHeaders headers = new HttpHeaders();
+            headers.setETag("\"" + metadata.etag() + "\"");
+            headers.setLastModified(metadata.lastModified());
+            headers.setCacheControl(cacheControlFor(RenditionType.fromObjectName(fileName)));
+
+            if (isPreconditionFailed(requestHeaders, headers.getETag(), headers.getLastModified())) {
+                return new ResponseEntity<>(headers, HttpStatus.PRECONDITION_FAILED);
+            }
+            if (isNotModified(requestHeaders, headers.getETag(), headers.getLastModified())) {
+                return new ResponseEntity<>(headers, HttpStatus.NOT_MODIFIED);
+            }
+
+            if (cached == null && onDisk == null) {
+                // Concurrent misses for the same object share a single cache fill.
+                LoadedObject loaded;
                 try {
-                    response.close();
-                } catch (IOException e) {
-                    System.err.println("Error closing MinIO response: " + e.getMessage());
+                    ObjectMetadata stored = metadata;
+                    loaded = requestCoalescer.execute(new ObjectKey(bucket, fileName), () -> loadObject(bucket, fileName, stored));
+                } catch (TimeoutException e) {
+                    return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                            .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+                            .build();
+                }
+                cached = loaded.cached();
+                if (loaded.onDisk()) {
+                    onDisk = diskCache.open(bucket, fileName);
+                }
+            }
+
+            headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+            headers.setContentType(parseContentType(metadata.contentType()));
+
+            long size = metadata.size();
+            HttpRange range = requestedRange(requestHeaders, headers.getETag(), headers.getLastModified());
+            long offset = 0;
+            long length = size;
+            if (range != null) {
+                // HttpRange clamps the end to the object but not the start, so a range past the
+                // end, "bytes=-0" and any range over an empty object come back empty or inverted.
+                offset = range.getRangeStart(size);
+                length = range.getRangeEnd(size) - offset + 1;
+                if (offset >= size || length <= 0) {
+                    headers.set(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+                    return new ResponseEntity<>(headers, HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
                 }
             }
+
+            StreamingResponseBody body;
+            if (cached != null) {
+                body = writeBuffer(cached.slice(offset, length));
+            } else if (onDisk != null && renditionCache.accepts(fileName, size) && renditionCache.wouldAdmit(bucket, fileName, size)) {
+                // Promote to the memory tier, only when admission would keep the copy.
+                try (DiskObject promoted = onDisk) {
+                    onDisk = null;
+                    body = writeBuffer(renditionCache.load(bucket, fileName, metadata, promoted.map(), memoryGeneration).slice(offset, length));
+                }
+            } else if (onDisk != null) {
+                body = writeFile(onDisk, offset, length);
+                onDisk = null;
+            } else {
+                body = stream(bucket, fileName, metadata, range != null ? offset : -1, length);
+            }
+
+            headers.setContentLength(length);
+            HttpStatus status = HttpStatus.OK;
+            if (range != null) {
+                headers.set(HttpHeaders.CONTENT_RANGE, "bytes " + offset + "-" + (offset + length - 1) + "/" + size);
+                status = HttpStatus.PARTIAL_CONTENT;
+            }
+            return new ResponseEntity<>(body, headers, status);
+        } catch (IOException e) {
+            logger.error("Error reading {} for category {}: {}", fileName, categoryId, e.getMessage());
+            return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+        } catch (Exception e) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        } finally {
+            // Only still set if the response does not read from it.
+            closeQuietly(onDisk);
         }
     }
 
@@ -169,6 +399,13 @@ public class PhotoController {
             response.put("minio_remove_error", e.getMessage());
         }
 
+        String bucketName = photo.getCategory().toString();
+        for (String objectName : List.of(photo.getLowRes(), photo.getHighRes(), photo.getFullPhoto())) {
+            renditionCache.invalidate(bucketName, objectName);
+            diskCache.invalidate(bucketName, objectName);
+            presignedUrls.invalidate(bucketName, objectName);
+        }
+
         repository.delete(photo);
         response.put("success", "true");
         return new ResponseEntity<>(response, HttpStatus.OK);
@@ -178,50 +415,335 @@ public class PhotoController {
     public ResponseEntity<Map<String, String>> rotatePhoto(@PathVariable UUID photoId) {
         Map<String, String> response = new HashMap<>();
 
-        Optional<Photo> photoOptional = repository.findById(photoId);
-        if (photoOptional.isEmpty()) return new ResponseEntity<>(response, HttpStatus.NOT_FOUND);
-        Photo photo = photoOptional.get();
-        String bucketName = photo.getCategory().toString();
+        // Rotation is metadata: the original is never rewritten, and the renditions are
+        // regenerated in the background under new names.
+        if (repository.rotate(photoId, System.currentTimeMillis()) == 0) return new ResponseEntity<>(response, HttpStatus.NOT_FOUND);
+        rotationService.schedule(photoId);
+
+        Photo photo = repository.findById(photoId).orElse(null);
+        if (photo == null) return new ResponseEntity<>(response, HttpStatus.NOT_FOUND);
+
+        response.put("success", "true");
+        response.put("rotation", String.valueOf(photo.getRotation()));
+        response.put("lowRes", photo.getLowRes());
+        response.put("highRes", photo.getHighRes());
+        response.put("fullPhoto", photo.getFullPhoto());
+        return new ResponseEntity<>(response, HttpStatus.ACCEPTED);
+    }
 
+    /**
+     * Serves an original the user has rotated. The stored file is left as it is; for JPEGs only
+     * the EXIF orientation in the header is rewritten while streaming. Other files are decoded,
+     * rotated and re-encoded. Ranges are not offered since the bytes differ from the stored ones.
+     * The validators move with the rotation: the ETag carries the orientation and Last-Modified
+     * is the later of the upload and the rotation. Photos rotated before the rotation time was
+     * recorded get no Last-Modified, so date conditions are ignored for them.
+     */
+    private ResponseEntity<StreamingResponseBody> getRotatedOriginal(String bucket, String fileName, Photo photo,
+                                                                     HttpHeaders requestHeaders) {
+        int orientation = Orientation.compose(photo.getOrientation(), photo.getRotation());
         try {
-            rotateAndOverwrite(bucketName, photo.getLowRes());
-            rotateAndOverwrite(bucketName, photo.getHighRes());
-            rotateAndOverwrite(bucketName, photo.getFullPhoto());
+            StatObjectResponse stat = minioClient.statObject(StatObjectArgs.builder()
+                    .bucket(bucket)
+                    .object(fileName).build());
 
-            response.put("success", "true");
-            return new ResponseEntity<>(response, HttpStatus.OK);
+            long lastModified = photo.getRotatedAt() == 0
+                    ? -1
+                    : Math.max(stat.lastModified().toInstant().toEpochMilli(), photo.getRotatedAt());
+            HttpHeaders headers = new HttpHeaders();
+            headers.setETag("\"" + stat.etag() + "-o" + orientation + "\"");
+            if (lastModified != -1) {
+                headers.setLastModified(lastModified);
+            }
+            headers.setCacheControl(cacheControlFor(RenditionType.ORIGINAL));
 
-        } catch (ErrorResponseException | InsufficientDataException | InternalException | InvalidKeyException |
-                 InvalidResponseException | IOException | NoSuchAlgorithmException | ServerException |
-                 XmlParserException e) {
-            response.put("minio_rotate_error", e.getMessage());
-            return new ResponseEntity<>(response, HttpStatus.INTERNAL_SERVER_ERROR);
+            if (isPreconditionFailed(requestHeaders, headers.getETag(), lastModified)) {
+                return new ResponseEntity<>(headers, HttpStatus.PRECONDITION_FAILED);
+            }
+            if (isNotModified(requestHeaders, headers.getETag(), lastModified)) {
+                return new ResponseEntity<>(headers, HttpStatus.NOT_MODIFIED);
+            }
+            headers.setContentType(parseContentType(stat.contentType()));
+
+            GetObjectResponse response = minioClient.getObject(GetObjectArgs.builder()
+                    .bucket(bucket)
+                    .object(fileName)
+                    .matchETag(stat.etag()).build());
+            InputStream inputStream = new BufferedInputStream(response);
+            OrientationRewriter.Header header;
+            try {
+                header = OrientationRewriter.rewrite(inputStream, orientation);
+            } catch (IOException | RuntimeException e) {
+                inputStream.close();
+                throw e;
+            }
+
+            if (header != null) {
+                headers.setContentLength(stat.size() - header.consumed() + header.bytes().length);
+                StreamingResponseBody body = outputStream -> {
+                    try (inputStream) {
+                        outputStream.write(header.bytes());
+                        inputStream.transferTo(outputStream);
+                    }
+                };
+                return new ResponseEntity<>(body, headers, HttpStatus.OK);
+            }
+            inputStream.close();
+
+            byte[] rotated = decodeAndOrient(bucket, fileName, stat.etag(), orientation);
+            if (rotated == null) {
+                return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+            }
+            headers.setContentLength(rotated.length);
+            StreamingResponseBody body = outputStream -> outputStream.write(rotated);
+            return new ResponseEntity<>(body, headers, HttpStatus.OK);
+        } catch (DecodeBudgetExceededException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+                    .build();
+        } catch (IOException e) {
+            logger.error("Error reading rotated {} for category {}: {}", fileName, bucket, e.getMessage());
+            return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+        } catch (Exception e) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
         }
     }
 
-    private void rotateAndOverwrite(String bucketName, String objectName) throws IOException, ServerException, InsufficientDataException, InternalException, InvalidResponseException, InvalidKeyException, NoSuchAlgorithmException, XmlParserException, ErrorResponseException {
+    private byte[] decodeAndOrient(String bucketName, String objectName, String etag, int orientation) throws IOException, ServerException, InsufficientDataException, InternalException, InvalidResponseException, InvalidKeyException, NoSuchAlgorithmException, XmlParserException, ErrorResponseException, DecodeBudgetExceededException {
         try (GetObjectResponse getResponse = minioClient.getObject(GetObjectArgs.builder()
                 .bucket(bucketName)
                 .object(objectName)
-                .build())) {
+                .matchETag(etag)
+                .build());
+             DecodedImage decoded = imageDecoder.decode(getResponse, 0, decodeTimeout)) {
+
+            if (decoded == null) {
+                return null;
+            }
+            BufferedImage rotatedImage = Orientation.apply(decoded.getImage(), orientation);
 
-            BufferedImage originalImage = ImageIO.read(getResponse);
-            if (originalImage != null) {
-                BufferedImage rotatedImage = Scalr.rotate(originalImage, Scalr.Rotation.CW_90);
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            String formatName = getFileExtension(objectName).orElse("jpg");
+            if (!ImageIO.write(rotatedImage, formatName, outputStream)) {
+                ImageIO.write(rotatedImage, "jpg", outputStream);
+            }
+            return outputStream.toByteArray();
+        }
+    }
+
+    private Map<String, Object> photoInfo(Photo photo) {
+        Map<String, Object> photoInfo = new HashMap<>();
+        photoInfo.put("id", photo.getId());
+        photoInfo.put("category", photo.getCategory());
+        photoInfo.put("lowRes", photo.getLowRes());
+        photoInfo.put("highRes", photo.getHighRes());
+        photoInfo.put("fullPhoto", photo.getFullPhoto());
+        photoInfo.put("width", photo.getWidth());
+        photoInfo.put("height", photo.getHeight());
+        photoInfo.put("fullPhotoBytes", photo.getFullPhotoBytes());
+        photoInfo.put("lowResWidth", photo.getLowResWidth());
+        photoInfo.put("lowResHeight", photo.getLowResHeight());
+        photoInfo.put("lowResBytes", photo.getLowResBytes());
+        photoInfo.put("highResWidth", photo.getHighResWidth());
+        photoInfo.put("highResHeight", photo.getHighResHeight());
+        photoInfo.put("highResBytes", photo.getHighResBytes());
+        photoInfo.put("placeholder", photo.getPlaceholder());
+        photoInfo.put("capturedAt", photo.getCapturedAt());
+        photoInfo.put("orientation", photo.getOrientation());
+        photoInfo.put("exifOrientation", photo.getExifOrientation());
+        photoInfo.put("cameraMake", photo.getCameraMake());
+        photoInfo.put("cameraModel", photo.getCameraModel());
+        photoInfo.put("lens", photo.getLens());
+        photoInfo.put("exposureTime", photo.getExposureTime());
+        photoInfo.put("aperture", photo.getAperture());
+        photoInfo.put("iso", photo.getIso());
+        photoInfo.put("focalLength", photo.getFocalLength());
+        return photoInfo;
+    }
 
-                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-                String formatName = getFileExtension(objectName).orElse("jpg");
-                ImageIO.write(rotatedImage, formatName, outputStream);
-                outputStream.flush();
-                byte[] rotatedImageBytes = outputStream.toByteArray();
+    private String cacheControlFor(RenditionType type) {
+        return switch (type) {
+            case LOW_RES -> lowResCacheControl;
+            case HIGH_RES -> highResCacheControl;
+            case ORIGINAL -> originalCacheControl;
+            case OTHER -> defaultCacheControl;
+        };
+    }
+
+    private boolean isNotModified(HttpHeaders requestHeaders, String etag, long lastModified) {
+        List<String> ifNoneMatch = requestHeaders.getIfNoneMatch();
+        if (!ifNoneMatch.isEmpty()) {
+            // If-None-Match takes precedence over If-Modified-Since and uses weak comparison.
+            String opaqueTag = etag.startsWith("W/") ? etag.substring(2) : etag;
+            return ifNoneMatch.stream()
+                    .map(tag -> tag.startsWith("W/") ? tag.substring(2) : tag)
+                    .anyMatch(tag -> tag.equals("*") || tag.equals(opaqueTag));
+        }
+
+        // A resource without a modification time ignores date conditions (-1 means none).
+        long ifModifiedSince = requestHeaders.getIfModifiedSince();
+        return ifModifiedSince != -1 && lastModified != -1 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
 
-                minioClient.putObject(PutObjectArgs.builder()
-                        .bucket(bucketName)
-                        .object(objectName)
-                        .contentType("image/" + formatName)
-                        .stream(new ByteArrayInputStream(rotatedImageBytes), rotatedImageBytes.length, -1)
-                        .build());
+    /**
+     * Whether an If-Match or If-Unmodified-Since precondition fails, which must be answered
+     * with 412 before any other condition is looked at.
+     */
+    private boolean isPreconditionFailed(HttpHeaders requestHeaders, String etag, long lastModified) {
+        List<String> ifMatch = requestHeaders.getIfMatch();
+        if (!ifMatch.isEmpty()) {
+            // If-Match uses strong comparison, so a weak tag never matches.
+            return ifMatch.stream().noneMatch(tag -> tag.equals("*") || (!tag.startsWith("W/") && tag.equals(etag)));
+        }
+
+        long ifUnmodifiedSince = requestHeaders.getIfUnmodifiedSince();
+        return ifUnmodifiedSince != -1 && lastModified != -1 && lastModified / 1000 > ifUnmodifiedSince / 1000;
+    }
+
+    /**
+     * Whether an object is still one of a photo's files. Objects that are not photo files
+     * have no row to check against and are taken to be in use.
+     */
+    private boolean isInUse(UUID categoryId, String fileName) {
+        return switch (RenditionType.fromObjectName(fileName)) {
+            case LOW_RES -> repository.existsByCategoryAndLowRes(categoryId, fileName);
+            case HIGH_RES -> repository.existsByCategoryAndHighRes(categoryId, fileName);
+            case ORIGINAL -> repository.existsByCategoryAndFullPhoto(categoryId, fileName);
+            case OTHER -> true;
+        };
+    }
+
+    private record LoadedObject(CachedObject cached, boolean onDisk) {
+    }
+
+    /**
+     * If the object is small enough for a cache tier, loads the whole object into that tier so
+     * it can be served to every request waiting on this load.
+     */
+    private LoadedObject loadObject(String bucket, String fileName, ObjectMetadata metadata) throws Exception {
+        boolean memory = renditionCache.accepts(fileName, metadata.size());
+        if (!memory && !diskCache.accepts(fileName, metadata.size())) {
+            return new LoadedObject(null, false);
+        }
+
+        // Taken before the read, so a delete that lands while it runs keeps the copy out of the tiers.
+        long memoryGeneration = renditionCache.generation();
+        long diskGeneration = diskCache.generation();
+        try (GetObjectResponse response = minioClient.getObject(GetObjectArgs.builder()
+                .bucket(bucket)
+                .object(fileName)
+                .matchETag(metadata.etag()).build())) {
+            if (memory) {
+                CachedObject cached = renditionCache.load(bucket, fileName, metadata, response, memoryGeneration);
+                diskCache.store(bucket, fileName, metadata, cached.slice(0, metadata.size()), diskGeneration);
+                return new LoadedObject(cached, false);
+            }
+            DiskObject filled = diskCache.fill(bucket, fileName, metadata, response, diskGeneration);
+            if (filled == null) {
+                return new LoadedObject(null, false);
+            }
+            filled.close();
+            return new LoadedObject(null, true);
+        }
+    }
+
+    /**
+     * Streams an object, or the {@code length} bytes at {@code offset} of it, straight from
+     * MinIO to the client. An {@code offset} of -1 means the whole object.
+     */
+    private StreamingResponseBody stream(String bucket, String fileName, ObjectMetadata metadata, long offset, long length) throws Exception {
+        GetObjectArgs.Builder args = GetObjectArgs.builder()
+                .bucket(bucket)
+                .object(fileName)
+                .matchETag(metadata.etag());
+        if (offset >= 0) {
+            // Only the requested bytes are pulled from storage.
+            args.offset(offset).length(length);
+        }
+        GetObjectResponse response = minioClient.getObject(args.build());
+
+        return outputStream -> {
+            try (InputStream inputStream = response) {
+                inputStream.transferTo(outputStream);
             }
+        };
+    }
+
+    private StreamingResponseBody writeFile(DiskObject diskObject, long offset, long length) {
+        return outputStream -> {
+            try (DiskObject source = diskObject) {
+                source.transferTo(offset, length, outputStream);
+            }
+        };
+    }
+
+    private void closeQuietly(DiskObject diskObject) {
+        if (diskObject != null) {
+            try {
+                diskObject.close();
+            } catch (IOException e) {
+                logger.debug("Error closing cached file: {}", e.getMessage());
+            }
+        }
+    }
+
+    private StreamingResponseBody writeBuffer(ByteBuffer buffer) {
+        return outputStream -> {
+            WritableByteChannel channel = Channels.newChannel(outputStream);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        };
+    }
+
+    /**
+     * Returns the single byte range to serve, or null to serve the whole object. Malformed
+     * headers, multi-range requests (multipart/byteranges is not supported) and an If-Range
+     * validator that no longer matches all fall back to the full 200 response, which RFC 9110
+     * allows a server to do for any Range request.
+     */
+    private HttpRange requestedRange(HttpHeaders requestHeaders, String etag, long lastModified) {
+        String rangeHeader = requestHeaders.getFirst(HttpHeaders.RANGE);
+        if (rangeHeader == null || !isIfRangeSatisfied(requestHeaders.getFirst(HttpHeaders.IF_RANGE), etag, lastModified)) {
+            return null;
+        }
+
+        List<HttpRange> ranges;
+        try {
+            ranges = HttpRange.parseRanges(rangeHeader);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        return ranges.size() == 1 ? ranges.get(0) : null;
+    }
+
+    private boolean isIfRangeSatisfied(String ifRange, String etag, long lastModified) {
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("W/")) {
+            // If-Range requires a strong comparison, a weak tag never matches.
+            return false;
+        }
+        if (ifRange.startsWith("\"")) {
+            return ifRange.equals(etag);
+        }
+        try {
+            long date = ZonedDateTime.parse(ifRange, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            return date / 1000 == lastModified / 1000;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    private MediaType parseContentType(String contentType) {
+        if (contentType == null) {
+            return MediaType.IMAGE_JPEG;
+        }
+        try {
+            return MediaType.parseMediaType(contentType);
+        } catch (InvalidMediaTypeException e) {
+            return MediaType.APPLICATION_OCTET_STREAM;
         }
     }
 
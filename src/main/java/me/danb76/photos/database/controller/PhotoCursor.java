@@ -0,0 +1,44 @@
+package me.danb76.photos.database.controller;
+
+import me.danb76.photos.database.tables.Photo;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.UUID;
+
+/**
+ * Position in a photo listing, handed to clients as an opaque string. Points at the last
+ * photo of a page; the next page starts strictly after it in (time, id) order, where time is
+ * whichever timestamp the listing sorts by.
+ */
+record PhotoCursor(long time, UUID id) {
+
+    static PhotoCursor byCreated(Photo photo) {
+        return new PhotoCursor(photo.getCreatedAt(), photo.getId());
+    }
+
+    static PhotoCursor byCaptured(Photo photo) {
+        return new PhotoCursor(photo.getCapturedAt(), photo.getId());
+    }
+
+    String encode() {
+        String raw = time + ":" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns null if the cursor was not produced by {@link #encode()}.
+     */
+    static PhotoCursor decode(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = raw.indexOf(':');
+            if (separator < 0) {
+                return null;
+            }
+            return new PhotoCursor(Long.parseLong(raw.substring(0, separator)), UUID.fromString(raw.substring(separator + 1)));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
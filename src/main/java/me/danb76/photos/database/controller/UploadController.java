@@ -2,14 +2,20 @@ package me.danb76.photos.database.controller;
 
 import io.minio.BucketExistsArgs;
 import io.minio.MinioClient;
-import io.minio.ObjectWriteResponse;
-import io.minio.PutObjectArgs;
 import io.minio.errors.MinioException;
+import jakarta.servlet.http.HttpServletRequest;
+import me.danb76.photos.database.repositories.CategoriesRepository;
+import me.danb76.photos.database.tables.Job;
 import me.danb76.photos.database.tables.Photo;
+import me.danb76.photos.service.BatchIngestService;
+import me.danb76.photos.service.IngestService;
+import me.danb76.photos.service.RawDeveloper;
 import org.apache.commons.io.FilenameUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -18,17 +24,20 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.UUID;
+import java.util.zip.ZipInputStream;
 
 @Controller
 @RequestMapping(path = "/api/upload/")
@@ -36,6 +45,8 @@ import java.util.UUID;
 public class UploadController {
     public static final String UPLOADS_BUCKET = "uploads";
     private static final String[] ALLOWED_EXTENSIONS = {"png", "jpg", "jpeg", "CR2"};
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+    private static final String RETRY_AFTER_SECONDS = "30";
 
     @Value("${spring.minio.url}")
     private String minioUrl;
@@ -46,10 +57,28 @@ public class UploadController {
     @Autowired
     private PhotoController photoController;
 
+    @Autowired
+    private CategoriesRepository categoriesRepository;
+
+    @Autowired
+    private IngestService ingestService;
+
+    @Autowired
+    private BatchIngestService batchIngestService;
+
+    @Autowired
+    private RawDeveloper rawDeveloper;
+
     @PostMapping(path = "/")
-    public @ResponseBody ResponseEntity<Map<String, String>> upload(@RequestParam("imageFile") MultipartFile file) {
+    public @ResponseBody ResponseEntity<Map<String, String>> upload(@RequestParam("imageFile") MultipartFile file,
+                                                                    @RequestParam(required = false) UUID category) {
         Map<String, String> response = new HashMap<>();
 
+        if (category != null && categoriesRepository.findById(category).isEmpty()) {
+            response.put("error", "Category does not exist. (Not found in database)");
+            return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
+        }
+
         if (file.isEmpty()) {
             response.put("error", "File is empty.");
             return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
@@ -62,79 +91,186 @@ public class UploadController {
             return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
         }
 
-        File cr2Temp = null;
-        File jpegFile = null;
+        if (!rawDeveloper.accepts(file.getOriginalFilename())) {
+            return developQueueFull(response);
+        }
+
         File uploadFile = null;
+        boolean handedOff = false;
 
         try {
             String baseFileName = UUID.randomUUID().toString();
-            String newFileName;
-
-            if (fileExtension.equalsIgnoreCase("cr2")) {
-                // Save CR2 to temp file
-                cr2Temp = File.createTempFile(baseFileName, ".cr2");
-                file.transferTo(cr2Temp);
-
-                // Convert to JPEG
-                jpegFile = File.createTempFile(baseFileName, ".jpg");
-                ProcessBuilder pb = new ProcessBuilder(
-                        "bash", "-c",
-                        String.format("dcraw -c %s | convert - %s", cr2Temp.getAbsolutePath(), jpegFile.getAbsolutePath())
-                );
-                Process process = pb.start();
-                int exitCode = process.waitFor();
-
-                if (exitCode != 0) {
-                    response.put("error", "Failed to convert CR2 to JPEG.");
-                    return new ResponseEntity<>(response, HttpStatus.INTERNAL_SERVER_ERROR);
-                }
-
-                uploadFile = jpegFile;
-                newFileName = baseFileName + ".jpg";
-                fileExtension = "jpg";
-            } else {
-                // Save original image file to temp
+            String newFileName = baseFileName + "." + fileExtension;
+            if (category != null) {
+                // The worker needs the bytes after this request ends. Moving the spooled part
+                // is usually a rename on the same disk, not a second copy.
                 uploadFile = File.createTempFile(baseFileName, "." + fileExtension);
                 file.transferTo(uploadFile);
-                newFileName = baseFileName + "." + fileExtension;
+                // Ingest owns the file from here and deletes it on every path, including failures.
+                handedOff = true;
+                return storeLocal(uploadFile, newFileName, fileExtension, category, response);
+            }
+
+            // Stream the spooled part straight to storage without another local copy.
+            try (InputStream inputStream = file.getInputStream()) {
+                IngestService.StoredObject stored = ingestService.store(UPLOADS_BUCKET, newFileName,
+                        IngestService.contentType(fileExtension), inputStream, file.getSize());
+                return uploaded(stored, response);
+            }
+
+        } catch (MinioException | NoSuchAlgorithmException | InvalidKeyException e) {
+            response.put("error", "Error uploading photo: " + e.getMessage());
+            return new ResponseEntity<>(response, HttpStatus.INTERNAL_SERVER_ERROR);
+        } catch (IOException e) {
+            response.put("error", "File processing error: " + e.getMessage());
+            return new ResponseEntity<>(response, HttpStatus.INTERNAL_SERVER_ERROR);
+        } finally {
+            // Cleanup temp files; a file handed to ingest is deleted there.
+            if (!handedOff) {
+                deleteTemp(uploadFile);
             }
+        }
+    }
+
+    /**
+     * Uploads a photo sent as the raw request body, e.g. {@code curl --data-binary @photo.jpg}.
+     * The body is piped into a multipart upload to storage while it is still arriving, a part at
+     * a time, so nothing touches local disk.
+     */
+    @PostMapping(path = "/stream")
+    public @ResponseBody ResponseEntity<Map<String, String>> uploadStream(HttpServletRequest request,
+                                                                          @RequestParam String fileName,
+                                                                          @RequestParam(required = false) UUID category) {
+        Map<String, String> response = new HashMap<>();
+
+        if (category != null && categoriesRepository.findById(category).isEmpty()) {
+            response.put("error", "Category does not exist. (Not found in database)");
+            return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
+        }
 
-            try (InputStream inputStream = java.nio.file.Files.newInputStream(uploadFile.toPath())) {
-                ObjectWriteResponse res = minioClient.putObject(
-                        PutObjectArgs.builder()
-                                .bucket(UPLOADS_BUCKET)
-                                .object(newFileName)
-                                .stream(inputStream, uploadFile.length(), -1)
-                                .contentType("image/" + fileExtension.toLowerCase())
-                                .build());
+        String fileExtension = FilenameUtils.getExtension(fileName);
 
+        if (!isValidExtension(fileExtension)) {
+            response.put("error", "Invalid file type. Only PNG, JPEG, and CR2 are allowed.");
+            return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
+        }
+
+        if (!rawDeveloper.accepts(fileName)) {
+            return developQueueFull(response);
+        }
+
+        try (InputStream inputStream = request.getInputStream()) {
+            String baseFileName = UUID.randomUUID().toString();
+            String newFileName = baseFileName + "." + fileExtension;
+            String contentType = IngestService.contentType(fileExtension);
+            long size = request.getContentLengthLong();
+            if (category != null) {
+                Job job = ingestService.ingest(category, newFileName, contentType, inputStream, size);
+                response.put("jobId", job.getId().toString());
                 response.put("message", "Photo uploaded successfully");
-                response.put("bucket", res.bucket());
+                response.put("bucket", category.toString());
                 response.put("fileName", newFileName);
                 return new ResponseEntity<>(response, HttpStatus.OK);
             }
 
+            IngestService.StoredObject stored = ingestService.store(UPLOADS_BUCKET, newFileName, contentType, inputStream, size);
+            return uploaded(stored, response);
+
         } catch (MinioException | NoSuchAlgorithmException | InvalidKeyException e) {
             response.put("error", "Error uploading photo: " + e.getMessage());
             return new ResponseEntity<>(response, HttpStatus.INTERNAL_SERVER_ERROR);
-        } catch (IOException | InterruptedException e) {
+        } catch (IOException e) {
             response.put("error", "File processing error: " + e.getMessage());
             return new ResponseEntity<>(response, HttpStatus.INTERNAL_SERVER_ERROR);
-        } finally {
-            // Cleanup temp files
-            if (cr2Temp != null && cr2Temp.exists()) {
-                cr2Temp.delete();
-            }
-            if (jpegFile != null && jpegFile.exists()) {
-                jpegFile.delete();
-            }
-            if (uploadFile != null && uploadFile.exists()) {
-                uploadFile.delete();
+        }
+    }
+
+    /**
+     * Uploads a whole shoot into a category in one request. Files are stored and queued in
+     * parallel, and the response is a stream of JSON lines, one per file as it is queued and a
+     * summary line at the end.
+     */
+    @PostMapping(path = "/batch")
+    public ResponseEntity<StreamingResponseBody> uploadBatch(@RequestParam("imageFiles") MultipartFile[] files,
+                                                             @RequestParam UUID category) {
+        if (categoriesRepository.findById(category).isEmpty()) {
+            return categoryNotFound();
+        }
+
+        Iterator<MultipartFile> parts = Arrays.asList(files).iterator();
+        StreamingResponseBody body = outputStream -> batchIngestService.ingest(category, () -> {
+            while (parts.hasNext()) {
+                MultipartFile part = parts.next();
+                if (!part.isEmpty()) {
+                    String name = part.getOriginalFilename();
+                    return new BatchIngestService.Item(name != null ? name : "", part::transferTo);
+                }
             }
+            return null;
+        }, outputStream);
+        return ResponseEntity.ok().contentType(NDJSON).body(body);
+    }
+
+    /**
+     * Like {@link #uploadBatch} but takes a zip archive as the raw request body, which is read
+     * entry by entry as it arrives, so the archive itself is never stored.
+     */
+    @PostMapping(path = "/batch/zip")
+    public ResponseEntity<StreamingResponseBody> uploadBatchZip(HttpServletRequest request,
+                                                                @RequestParam UUID category) {
+        if (categoriesRepository.findById(category).isEmpty()) {
+            return categoryNotFound();
         }
+
+        StreamingResponseBody body = outputStream -> {
+            try (ZipInputStream zip = new ZipInputStream(request.getInputStream())) {
+                batchIngestService.ingest(category, batchIngestService.zipEntries(zip), outputStream);
+            }
+        };
+        return ResponseEntity.ok().contentType(NDJSON).body(body);
     }
 
+    private static ResponseEntity<StreamingResponseBody> categoryNotFound() {
+        StreamingResponseBody body = outputStream ->
+                outputStream.write("{\"error\":\"Category does not exist. (Not found in database)\"}".getBytes(StandardCharsets.UTF_8));
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).contentType(MediaType.APPLICATION_JSON).body(body);
+    }
 
+    /**
+     * Stores a file that is already on local disk as the original of a new photo, which hands
+     * the file to the ingest job.
+     */
+    private ResponseEntity<Map<String, String>> storeLocal(File localFile, String newFileName, String fileExtension,
+                                                           UUID category, Map<String, String> response) throws IOException, MinioException, InvalidKeyException, NoSuchAlgorithmException {
+        Job job = ingestService.ingest(category, newFileName, IngestService.contentType(fileExtension), localFile.toPath());
+        response.put("message", "Photo uploaded successfully");
+        response.put("bucket", category.toString());
+        response.put("fileName", newFileName);
+        response.put("jobId", job.getId().toString());
+        return new ResponseEntity<>(response, HttpStatus.OK);
+    }
+
+    private static ResponseEntity<Map<String, String>> developQueueFull(Map<String, String> response) {
+        response.put("error", "Too many RAW files are waiting to be developed, try again later.");
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+                .body(response);
+    }
+
+    private ResponseEntity<Map<String, String>> uploaded(IngestService.StoredObject stored, Map<String, String> response) {
+        response.put("message", "Photo uploaded successfully");
+        response.put("bucket", stored.bucket());
+        response.put("fileName", stored.objectName());
+        response.put("size", String.valueOf(stored.size()));
+        response.put("sha256", stored.sha256());
+        return new ResponseEntity<>(response, HttpStatus.OK);
+    }
+
+    private static void deleteTemp(File file) {
+        if (file != null && file.exists()) {
+            file.delete();
+        }
+    }
 
     private boolean isValidExtension(String extension) {
         for (String allowedExtension : ALLOWED_EXTENSIONS) {
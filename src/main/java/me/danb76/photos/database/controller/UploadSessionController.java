@@ -0,0 +1,191 @@
+package me.danb76.photos.database.controller;
+
+import io.minio.errors.MinioException;
+import jakarta.servlet.http.HttpServletRequest;
+import me.danb76.photos.database.repositories.CategoriesRepository;
+import me.danb76.photos.database.tables.UploadSession;
+import me.danb76.photos.service.IngestService;
+import me.danb76.photos.service.RawDeveloper;
+import me.danb76.photos.service.UploadSessionService;
+import org.apache.commons.io.FilenameUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+@Controller
+@RequestMapping(path = "/api/upload/sessions")
+@RestController
+public class UploadSessionController {
+    private static final String[] ALLOWED_EXTENSIONS = {"png", "jpg", "jpeg", "CR2"};
+    private static final String RETRY_AFTER_SECONDS = "30";
+
+    @Autowired
+    private UploadSessionService uploadSessions;
+
+    @Autowired
+    private CategoriesRepository categoriesRepository;
+
+    @Autowired
+    private RawDeveloper rawDeveloper;
+
+    @PostMapping
+    public @ResponseBody ResponseEntity<Map<String, Object>> createSession(@RequestParam String fileName,
+                                                                           @RequestParam(required = false) UUID category) {
+        Map<String, Object> response = new HashMap<>();
+
+        if (category != null && categoriesRepository.findById(category).isEmpty()) {
+            response.put("error", "Category does not exist. (Not found in database)");
+            return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
+        }
+
+        String fileExtension = FilenameUtils.getExtension(fileName);
+        if (!isValidExtension(fileExtension)) {
+            response.put("error", "Invalid file type. Only PNG, JPEG, and CR2 are allowed.");
+            return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
+        }
+
+        // Turned away before any parts are sent, as the single-request uploads are.
+        if (!rawDeveloper.accepts(fileName)) {
+            response.put("error", "Too many RAW files are waiting to be developed, try again later.");
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+                    .body(response);
+        }
+
+        UploadSession session = uploadSessions.create(UUID.randomUUID() + "." + fileExtension, category);
+        response.put("sessionId", session.getId());
+        response.put("fileName", session.getFileName());
+        response.put("expiresAt", session.getExpiresAt());
+        response.put("minPartSize", UploadSessionService.MIN_PART_SIZE);
+        response.put("maxParts", UploadSessionService.MAX_PARTS);
+        return new ResponseEntity<>(response, HttpStatus.CREATED);
+    }
+
+    @PutMapping(path = "/{sessionId}/parts/{partNumber}")
+    public @ResponseBody ResponseEntity<Map<String, Object>> putPart(@PathVariable UUID sessionId, @PathVariable int partNumber,
+                                                                     HttpServletRequest request) {
+        Map<String, Object> response = new HashMap<>();
+
+        Optional<UploadSession> session = uploadSessions.find(sessionId);
+        if (session.isEmpty()) return new ResponseEntity<>(response, HttpStatus.NOT_FOUND);
+
+        try (InputStream inputStream = request.getInputStream()) {
+            IngestService.StoredObject stored = uploadSessions.putPart(session.get(), partNumber, inputStream, request.getContentLengthLong());
+            response.put("part", partNumber);
+            response.put("size", stored.size());
+            response.put("sha256", stored.sha256());
+            return new ResponseEntity<>(response, HttpStatus.OK);
+        } catch (IllegalArgumentException e) {
+            response.put("error", e.getMessage());
+            return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
+        } catch (IllegalStateException e) {
+            response.put("error", e.getMessage());
+            return new ResponseEntity<>(response, HttpStatus.CONFLICT);
+        } catch (MinioException | NoSuchAlgorithmException | InvalidKeyException e) {
+            response.put("error", "Error uploading part: " + e.getMessage());
+            return new ResponseEntity<>(response, HttpStatus.INTERNAL_SERVER_ERROR);
+        } catch (IOException e) {
+            response.put("error", "File processing error: " + e.getMessage());
+            return new ResponseEntity<>(response, HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    @GetMapping(path = "/{sessionId}/parts")
+    public @ResponseBody ResponseEntity<Map<String, Object>> getParts(@PathVariable UUID sessionId) {
+        Map<String, Object> response = new HashMap<>();
+
+        Optional<UploadSession> session = uploadSessions.find(sessionId);
+        if (session.isEmpty()) return new ResponseEntity<>(response, HttpStatus.NOT_FOUND);
+
+        try {
+            List<UploadSessionService.Part> parts = uploadSessions.listParts(session.get());
+            response.put("parts", parts);
+            response.put("expiresAt", session.get().getExpiresAt());
+            response.put("completing", session.get().isCompleting());
+            response.put("failed", session.get().isFailed());
+            if (session.get().isFailed()) {
+                response.put("failureReason", session.get().getFailureReason());
+            }
+            return new ResponseEntity<>(response, HttpStatus.OK);
+        } catch (MinioException | NoSuchAlgorithmException | InvalidKeyException | IOException e) {
+            response.put("error", "Error listing parts: " + e.getMessage());
+            return new ResponseEntity<>(response, HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    @PostMapping(path = "/{sessionId}/complete")
+    public @ResponseBody ResponseEntity<Map<String, Object>> complete(@PathVariable UUID sessionId) {
+        Map<String, Object> response = new HashMap<>();
+
+        Optional<UploadSession> session = uploadSessions.find(sessionId);
+        if (session.isEmpty()) return new ResponseEntity<>(response, HttpStatus.NOT_FOUND);
+
+        try {
+            UploadSessionService.Completed completed = uploadSessions.complete(session.get());
+            response.put("message", "Photo uploaded successfully");
+            response.put("bucket", completed.bucket());
+            response.put("fileName", completed.fileName());
+            response.put("size", completed.size());
+            if (completed.job() != null) {
+                response.put("jobId", completed.job().getId());
+            }
+            return new ResponseEntity<>(response, HttpStatus.OK);
+        } catch (IllegalArgumentException e) {
+            response.put("error", e.getMessage());
+            return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
+        } catch (IllegalStateException e) {
+            response.put("error", e.getMessage());
+            return new ResponseEntity<>(response, HttpStatus.CONFLICT);
+        } catch (MinioException | NoSuchAlgorithmException | InvalidKeyException | IOException | RuntimeException e) {
+            response.put("error", "Error completing upload: " + e.getMessage());
+            return new ResponseEntity<>(response, HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    @DeleteMapping(path = "/{sessionId}")
+    public @ResponseBody ResponseEntity<Map<String, Object>> abort(@PathVariable UUID sessionId) {
+        Map<String, Object> response = new HashMap<>();
+
+        Optional<UploadSession> session = uploadSessions.find(sessionId);
+        if (session.isEmpty()) return new ResponseEntity<>(response, HttpStatus.NOT_FOUND);
+
+        try {
+            uploadSessions.abort(session.get());
+            response.put("success", "true");
+            return new ResponseEntity<>(response, HttpStatus.OK);
+        } catch (MinioException | NoSuchAlgorithmException | InvalidKeyException | IOException e) {
+            response.put("error", "Error aborting upload: " + e.getMessage());
+            return new ResponseEntity<>(response, HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    private boolean isValidExtension(String extension) {
+        for (String allowedExtension : ALLOWED_EXTENSIONS) {
+            if (allowedExtension.equalsIgnoreCase(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
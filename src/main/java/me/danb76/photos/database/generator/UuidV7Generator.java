@@ -0,0 +1,57 @@
+package me.danb76.photos.database.generator;
+
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.generator.BeforeExecutionGenerator;
+import org.hibernate.generator.EventType;
+import org.hibernate.generator.EventTypeSets;
+
+import java.security.SecureRandom;
+import java.util.EnumSet;
+import java.util.UUID;
+
+/**
+ * RFC 9562 version 7 UUIDs: a 48-bit Unix millisecond timestamp, then 12 bits used as a
+ * counter within the millisecond, then 62 random bits. Ids generated by one node are strictly
+ * increasing, and ids from different nodes are ordered to the millisecond.
+ */
+public class UuidV7Generator implements BeforeExecutionGenerator {
+    private static final SecureRandom random = new SecureRandom();
+
+    private static long lastTimestamp;
+    private static int sequence;
+
+    @Override
+    public Object generate(SharedSessionContractImplementor session, Object owner, Object currentValue, EventType eventType) {
+        return next();
+    }
+
+    @Override
+    public EnumSet<EventType> getEventTypes() {
+        return EventTypeSets.INSERT_ONLY;
+    }
+
+    public static UUID next() {
+        long timestamp;
+        int counter;
+        synchronized (UuidV7Generator.class) {
+            timestamp = Math.max(System.currentTimeMillis(), lastTimestamp);
+            if (timestamp == lastTimestamp) {
+                sequence++;
+                if (sequence > 0xFFF) {
+                    // Counter exhausted, borrow the next millisecond.
+                    timestamp++;
+                    sequence = random.nextInt(0x800);
+                }
+            } else {
+                // Start low in the range so there is room to count up within the millisecond.
+                sequence = random.nextInt(0x800);
+            }
+            lastTimestamp = timestamp;
+            counter = sequence;
+        }
+
+        long mostSigBits = (timestamp << 16) | 0x7000L | counter;
+        long leastSigBits = (random.nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        return new UUID(mostSigBits, leastSigBits);
+    }
+}
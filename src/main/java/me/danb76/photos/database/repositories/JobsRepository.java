@@ -1,12 +1,48 @@
 package me.danb76.photos.database.repositories;
 
-import me.danb76.photos.database.tables.Category;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
 import me.danb76.photos.database.tables.Job;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.UUID;
 
 @Repository
 public interface JobsRepository extends CrudRepository<Job, UUID> {
+    Slice<Job> findByProcessingTrueOrderByTimestampAsc(Pageable pageable);
+
+    // SELECT ... FOR UPDATE SKIP LOCKED, so concurrent claimers on other nodes skip rows we are claiming.
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @QueryHints(@QueryHint(name = "jakarta.persistence.lock.timeout", value = "-2"))
+    @Query("SELECT j FROM Job j WHERE j.processing = true AND (j.claimedBy IS NULL OR j.leaseExpiry < :now) ORDER BY j.timestamp")
+    List<Job> findClaimable(@Param("now") long now, Pageable pageable);
+
+    @Modifying
+    @Query("UPDATE Job j SET j.claimedBy = :node, j.leaseExpiry = :expiry WHERE j.id = :id AND j.processing = true " +
+            "AND (j.claimedBy IS NULL OR j.claimedBy = :node OR j.leaseExpiry < :now)")
+    int claim(@Param("id") UUID id, @Param("node") String node, @Param("expiry") long expiry, @Param("now") long now);
+
+    @Modifying
+    @Query("UPDATE Job j SET j.claimedBy = NULL, j.leaseExpiry = 0 WHERE j.id = :id AND j.claimedBy = :node")
+    int release(@Param("id") UUID id, @Param("node") String node);
+
+    @Modifying
+    @Query("UPDATE Job j SET j.leaseExpiry = :expiry WHERE j.id IN :ids AND j.claimedBy = :node AND j.processing = true")
+    int renew(@Param("ids") Collection<UUID> ids, @Param("node") String node, @Param("expiry") long expiry);
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM Job j WHERE j.processing = false AND j.timestamp < :cutoff")
+    int deleteExpired(@Param("cutoff") long cutoff);
 }
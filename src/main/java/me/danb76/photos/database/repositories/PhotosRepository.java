@@ -1,14 +1,110 @@
 package me.danb76.photos.database.repositories;
 
+import jakarta.persistence.LockModeType;
 import me.danb76.photos.database.tables.Photo;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
 
 @Repository
 public interface PhotosRepository extends CrudRepository<Photo, UUID> {
-    Page<Photo> findByCategory(UUID category, Pageable pageable);
-}
\ No newline at end of file
+    // Newest first; id breaks ties so the order is stable. Both queries walk idx_photo_category_created.
+    @Query("SELECT p FROM Photo p WHERE p.category = :category ORDER BY p.createdAt DESC, p.id DESC")
+    List<Photo> findFirstPage(@Param("category") UUID category, Limit limit);
+
+    @Query("SELECT p FROM Photo p WHERE p.category = :category " +
+            "AND (p.createdAt < :createdAt OR (p.createdAt = :createdAt AND p.id < :id)) " +
+            "ORDER BY p.createdAt DESC, p.id DESC")
+    List<Photo> findPageAfter(@Param("category") UUID category, @Param("createdAt") long createdAt,
+                              @Param("id") UUID id, Limit limit);
+
+    long countByCategory(UUID category);
+
+    Optional<Photo> findFirstByCategoryAndFullPhoto(UUID category, String fullPhoto);
+
+    // Whether a cached object still belongs to a photo; each walks its own (category, column) index.
+    boolean existsByCategoryAndLowRes(UUID category, String lowRes);
+
+    boolean existsByCategoryAndHighRes(UUID category, String highRes);
+
+    boolean existsByCategoryAndFullPhoto(UUID category, String fullPhoto);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT p FROM Photo p WHERE p.id = :id")
+    Optional<Photo> findLockedById(@Param("id") UUID id);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE Photo p SET p.rotation = MOD(p.rotation + 1, 4), p.rotatedAt = :rotatedAt WHERE p.id = :id")
+    int rotate(@Param("id") UUID id, @Param("rotatedAt") long rotatedAt);
+
+    // Photos whose renditions are behind their rotation, e.g. after a restart lost the queue.
+    @Query("SELECT p.id FROM Photo p WHERE p.rotation <> p.renditionRotation")
+    List<UUID> findIdsWithStaleRenditions(Limit limit);
+
+    // RAW photos still waiting for a develop no node holds, e.g. because the develop queue was full.
+    @Query("SELECT p.id FROM Photo p WHERE p.developPending = true AND (p.developingBy IS NULL OR p.developLeaseExpiry < :now)")
+    List<UUID> findIdsPendingDevelop(@Param("now") long now, Limit limit);
+
+    // Claims the develop of a pending photo unless another node holds an unexpired lease on it.
+    @Modifying
+    @Transactional
+    @Query("UPDATE Photo p SET p.developingBy = :node, p.developLeaseExpiry = :expiry WHERE p.id = :id " +
+            "AND p.developPending = true AND (p.developingBy IS NULL OR p.developingBy = :node OR p.developLeaseExpiry < :now)")
+    int claimDevelop(@Param("id") UUID id, @Param("node") String node, @Param("expiry") long expiry, @Param("now") long now);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE Photo p SET p.developingBy = NULL, p.developLeaseExpiry = 0 WHERE p.id = :id AND p.developingBy = :node")
+    int releaseDevelop(@Param("id") UUID id, @Param("node") String node);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE Photo p SET p.developLeaseExpiry = :expiry WHERE p.id IN :ids AND p.developingBy = :node")
+    int renewDevelops(@Param("ids") Collection<UUID> ids, @Param("node") String node, @Param("expiry") long expiry);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE Photo p SET p.developPending = false, p.developingBy = NULL, p.developLeaseExpiry = 0 WHERE p.id = :id")
+    int clearDevelopPending(@Param("id") UUID id);
+
+    // Writes only the EXIF columns, so a concurrent rotation or rendition swap is not overwritten.
+    // orientation is left alone: it describes the renditions, which this does not regenerate.
+    // Without an EXIF capture time, rows from before created_at was recorded (0) fall back to
+    // when the original was stored.
+    @Modifying
+    @Transactional
+    @Query("UPDATE Photo p SET p.capturedAt = COALESCE(:capturedAt, CASE WHEN p.createdAt > 0 THEN p.createdAt ELSE :storedAt END), " +
+            "p.exifOrientation = :orientation, " +
+            "p.cameraMake = :make, p.cameraModel = :model, p.lens = :lens, p.exposureTime = :exposureTime, " +
+            "p.aperture = :aperture, p.iso = :iso, p.focalLength = :focalLength WHERE p.id = :id")
+    int updateExif(@Param("id") UUID id, @Param("capturedAt") Long capturedAt, @Param("storedAt") long storedAt,
+                   @Param("orientation") int orientation,
+                   @Param("make") String make, @Param("model") String model, @Param("lens") String lens,
+                   @Param("exposureTime") String exposureTime, @Param("aperture") Double aperture,
+                   @Param("iso") Integer iso, @Param("focalLength") Double focalLength);
+
+    // Timeline across all categories, newest capture first, walking idx_photo_captured.
+    @Query("SELECT p FROM Photo p ORDER BY p.capturedAt DESC, p.id DESC")
+    List<Photo> findTimelineFirstPage(Limit limit);
+
+    @Query("SELECT p FROM Photo p WHERE p.capturedAt < :capturedAt OR (p.capturedAt = :capturedAt AND p.id < :id) " +
+            "ORDER BY p.capturedAt DESC, p.id DESC")
+    List<Photo> findTimelinePageAfter(@Param("capturedAt") long capturedAt, @Param("id") UUID id, Limit limit);
+
+    @Query("SELECT p FROM Photo p ORDER BY p.id")
+    List<Photo> findFirstById(Limit limit);
+
+    @Query("SELECT p FROM Photo p WHERE p.id > :id ORDER BY p.id")
+    List<Photo> findAfterId(@Param("id") UUID id, Limit limit);
+}
@@ -0,0 +1,40 @@
+package me.danb76.photos.database.repositories;
+
+import me.danb76.photos.database.tables.UploadSession;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+import java.util.UUID;
+
+@Repository
+public interface UploadSessionsRepository extends CrudRepository<UploadSession, UUID> {
+    List<UploadSession> findByExpiresAtLessThan(long now, Limit limit);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE UploadSession s SET s.expiresAt = :expiresAt WHERE s.id = :id AND s.completing = false")
+    int touch(@Param("id") UUID id, @Param("expiresAt") long expiresAt);
+
+    // Only one caller wins, so a session is never assembled twice.
+    @Modifying
+    @Transactional
+    @Query("UPDATE UploadSession s SET s.completing = true WHERE s.id = :id AND s.completing = false")
+    int markCompleting(@Param("id") UUID id);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE UploadSession s SET s.completing = false WHERE s.id = :id")
+    int clearCompleting(@Param("id") UUID id);
+
+    // Leaves the session completing, so it takes no more parts and cannot be completed again.
+    @Modifying
+    @Transactional
+    @Query("UPDATE UploadSession s SET s.failed = true, s.failureReason = :reason WHERE s.id = :id")
+    int markFailed(@Param("id") UUID id, @Param("reason") String reason);
+}
@@ -1,16 +1,17 @@
 package me.danb76.photos.database.tables;
 
+import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
-import jakarta.persistence.GeneratedValue;
-import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import me.danb76.photos.database.generator.UuidV7;
 
 import java.util.UUID;
 
 @Entity
 public class Category {
     @Id
-    @GeneratedValue(strategy= GenerationType.AUTO)
+    @UuidV7
+    @Column(columnDefinition = "BINARY(16)")
     private UUID id;
 
     private String name;
@@ -1,22 +1,29 @@
 package me.danb76.photos.database.tables;
 
+import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
-import jakarta.persistence.GeneratedValue;
-import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import me.danb76.photos.database.generator.UuidV7;
 
 import java.util.UUID;
 
 @Entity
+@Table(indexes = @Index(name = "idx_job_processing_timestamp", columnList = "processing, timestamp"))
 public class Job {
     @Id
-    @GeneratedValue(strategy= GenerationType.AUTO)
+    @UuidV7
+    @Column(columnDefinition = "BINARY(16)")
     private UUID id;
 
     private UUID category;
 
     private String fileName;
 
+    // Bucket holding the original to process; null for files waiting in the uploads bucket.
+    private String sourceBucket;
+
     private boolean success;
 
     private boolean processing;
@@ -25,6 +32,10 @@ public class Job {
 
     private long timestamp;
 
+    private String claimedBy;
+
+    private long leaseExpiry;
+
     public Job() {
         this.processing = true;
         this.timestamp = System.currentTimeMillis();
@@ -50,6 +61,14 @@ public class Job {
         this.fileName = fileName;
     }
 
+    public String getSourceBucket() {
+        return sourceBucket;
+    }
+
+    public void setSourceBucket(String sourceBucket) {
+        this.sourceBucket = sourceBucket;
+    }
+
     public boolean isSuccess() {
         return success;
     }
@@ -77,4 +96,20 @@ public class Job {
     public long getTimestamp() {
         return timestamp;
     }
+
+    public String getClaimedBy() {
+        return claimedBy;
+    }
+
+    public void setClaimedBy(String claimedBy) {
+        this.claimedBy = claimedBy;
+    }
+
+    public long getLeaseExpiry() {
+        return leaseExpiry;
+    }
+
+    public void setLeaseExpiry(long leaseExpiry) {
+        this.leaseExpiry = leaseExpiry;
+    }
 }
@@ -1,16 +1,27 @@
 package me.danb76.photos.database.tables;
 
+import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
-import jakarta.persistence.GeneratedValue;
-import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import me.danb76.photos.database.generator.UuidV7;
 
 import java.util.UUID;
 
 @Entity
+@Table(indexes = {
+        @Index(name = "idx_photo_category_created", columnList = "category, created_at, id"),
+        @Index(name = "idx_photo_captured", columnList = "captured_at, id"),
+        @Index(name = "idx_photo_category_full_photo", columnList = "category, full_photo"),
+        @Index(name = "idx_photo_category_low_res", columnList = "category, low_res"),
+        @Index(name = "idx_photo_category_high_res", columnList = "category, high_res"),
+        @Index(name = "idx_photo_develop_pending", columnList = "develop_pending")
+})
 public class Photo {
     @Id
-    @GeneratedValue(strategy= GenerationType.AUTO)
+    @UuidV7
+    @Column(columnDefinition = "BINARY(16)")
     private UUID id;
 
     private UUID category;
@@ -21,6 +32,87 @@ public class Photo {
 
     private String fullPhoto;
 
+    @Column(name = "created_at")
+    private long createdAt;
+
+    private int width;
+
+    private int height;
+
+    private long fullPhotoBytes;
+
+    private int lowResWidth;
+
+    private int lowResHeight;
+
+    private long lowResBytes;
+
+    private int highResWidth;
+
+    private int highResHeight;
+
+    private long highResBytes;
+
+    // BlurHash of the photo, decoded by clients into a placeholder.
+    private String placeholder;
+
+    // When the photo was taken, from EXIF; the upload time if the file does not say.
+    @Column(name = "captured_at")
+    private long capturedAt;
+
+    // EXIF orientation of the original (1-8). Renditions made at ingest are already upright.
+    private int orientation;
+
+    // The orientation the original's EXIF asks for. Equal to orientation for photos ingested
+    // since EXIF was read. Older photos keep their renditions as drawn and an orientation of 0,
+    // and the EXIF backfill records what the file says here only.
+    @Column(name = "exif_orientation")
+    private int exifOrientation;
+
+    // Quarter turns clockwise applied by the user on top of the EXIF orientation. The original is
+    // never rewritten; renditionRotation records which rotation the current renditions show.
+    private int rotation;
+
+    private int renditionRotation;
+
+    // When the user last rotated the photo, so the rotated original gets a Last-Modified that
+    // moves with it. 0 for photos last rotated before this was recorded.
+    @Column(name = "rotated_at")
+    private long rotatedAt;
+
+    // Set while a RAW original still shows its embedded-preview renditions and waits for a full
+    // develop, so a develop the queue turned away is picked up again by the sweep.
+    @Column(name = "develop_pending")
+    private boolean developPending;
+
+    // The node holding the develop of a pending RAW photo and until when, so that only one
+    // replica develops it. A node that dies loses the claim once the lease runs out.
+    @Column(name = "developing_by")
+    private String developingBy;
+
+    @Column(name = "develop_lease_expiry")
+    private long developLeaseExpiry;
+
+    private String cameraMake;
+
+    private String cameraModel;
+
+    private String lens;
+
+    private String exposureTime;
+
+    private Double aperture;
+
+    private Integer iso;
+
+    private Double focalLength;
+
+    public Photo() {
+        this.createdAt = System.currentTimeMillis();
+        this.capturedAt = this.createdAt;
+        this.orientation = 1;
+    }
+
     public UUID getId() {
         return id;
     }
@@ -56,4 +148,177 @@ public class Photo {
     public void setFullPhoto(String fullPhoto) {
         this.fullPhoto = fullPhoto;
     }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public void setDimensions(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    public long getFullPhotoBytes() {
+        return fullPhotoBytes;
+    }
+
+    public void setFullPhotoBytes(long fullPhotoBytes) {
+        this.fullPhotoBytes = fullPhotoBytes;
+    }
+
+    public int getLowResWidth() {
+        return lowResWidth;
+    }
+
+    public int getLowResHeight() {
+        return lowResHeight;
+    }
+
+    public long getLowResBytes() {
+        return lowResBytes;
+    }
+
+    public void setLowResRendition(int width, int height, long bytes) {
+        this.lowResWidth = width;
+        this.lowResHeight = height;
+        this.lowResBytes = bytes;
+    }
+
+    public int getHighResWidth() {
+        return highResWidth;
+    }
+
+    public int getHighResHeight() {
+        return highResHeight;
+    }
+
+    public long getHighResBytes() {
+        return highResBytes;
+    }
+
+    public void setHighResRendition(int width, int height, long bytes) {
+        this.highResWidth = width;
+        this.highResHeight = height;
+        this.highResBytes = bytes;
+    }
+
+    public String getPlaceholder() {
+        return placeholder;
+    }
+
+    public void setPlaceholder(String placeholder) {
+        this.placeholder = placeholder;
+    }
+
+    public long getCapturedAt() {
+        return capturedAt;
+    }
+
+    public void setCapturedAt(long capturedAt) {
+        this.capturedAt = capturedAt;
+    }
+
+    public int getOrientation() {
+        return orientation;
+    }
+
+    public void setOrientation(int orientation) {
+        this.orientation = orientation;
+    }
+
+    public int getExifOrientation() {
+        return exifOrientation;
+    }
+
+    public void setExifOrientation(int exifOrientation) {
+        this.exifOrientation = exifOrientation;
+    }
+
+    public String getCameraMake() {
+        return cameraMake;
+    }
+
+    public void setCameraMake(String cameraMake) {
+        this.cameraMake = cameraMake;
+    }
+
+    public String getCameraModel() {
+        return cameraModel;
+    }
+
+    public void setCameraModel(String cameraModel) {
+        this.cameraModel = cameraModel;
+    }
+
+    public String getLens() {
+        return lens;
+    }
+
+    public void setLens(String lens) {
+        this.lens = lens;
+    }
+
+    public String getExposureTime() {
+        return exposureTime;
+    }
+
+    public void setExposureTime(String exposureTime) {
+        this.exposureTime = exposureTime;
+    }
+
+    public Double getAperture() {
+        return aperture;
+    }
+
+    public void setAperture(Double aperture) {
+        this.aperture = aperture;
+    }
+
+    public Integer getIso() {
+        return iso;
+    }
+
+    public void setIso(Integer iso) {
+        this.iso = iso;
+    }
+
+    public Double getFocalLength() {
+        return focalLength;
+    }
+
+    public void setFocalLength(Double focalLength) {
+        this.focalLength = focalLength;
+    }
+
+    public int getRotation() {
+        return rotation;
+    }
+
+    public long getRotatedAt() {
+        return rotatedAt;
+    }
+
+    public int getRenditionRotation() {
+        return renditionRotation;
+    }
+
+    public void setRenditionRotation(int renditionRotation) {
+        this.renditionRotation = renditionRotation;
+    }
+
+    public boolean isDevelopPending() {
+        return developPending;
+    }
+
+    public void setDevelopPending(boolean developPending) {
+        this.developPending = developPending;
+    }
 }
@@ -0,0 +1,87 @@
+package me.danb76.photos.database.tables;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import me.danb76.photos.database.generator.UuidV7;
+
+import java.util.UUID;
+
+@Entity
+@Table(indexes = @Index(name = "idx_upload_session_expires_at", columnList = "expires_at"))
+public class UploadSession {
+    @Id
+    @UuidV7
+    @Column(columnDefinition = "BINARY(16)")
+    private UUID id;
+
+    // Name the assembled file is stored under.
+    private String fileName;
+
+    // Category to ingest into on completion; null to leave the file in the uploads bucket.
+    private UUID category;
+
+    private long createdAt;
+
+    @Column(name = "expires_at")
+    private long expiresAt;
+
+    private boolean completing;
+
+    // Set when the file was assembled but could not be ingested. The session is then kept, still
+    // marked completing, until it expires so the client can see why.
+    private boolean failed;
+
+    @Column(columnDefinition = "TEXT")
+    private String failureReason;
+
+    public UploadSession() {
+        this.createdAt = System.currentTimeMillis();
+    }
+
+    public UUID getId() {
+        return id;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public UUID getCategory() {
+        return category;
+    }
+
+    public void setCategory(UUID category) {
+        this.category = category;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    public void setExpiresAt(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    public boolean isCompleting() {
+        return completing;
+    }
+
+    public boolean isFailed() {
+        return failed;
+    }
+
+    public String getFailureReason() {
+        return failureReason;
+    }
+}
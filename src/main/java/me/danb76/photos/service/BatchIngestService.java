@@ -0,0 +1,302 @@
+package me.danb76.photos.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.minio.errors.MinioException;
+import jakarta.annotation.PreDestroy;
+import me.danb76.photos.database.tables.Job;
+import org.apache.commons.io.FilenameUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Ingests many files into one category in a single request. Files are read from the request
+ * one after another, since the body is a single stream, and each is stored and queued on a
+ * bounded pool while the next one is read. A JSON line is written for every file as soon as it
+ * is done, so the client sees progress rather than waiting for the whole batch.
+ */
+@Service
+public class BatchIngestService {
+    private static final Logger logger = LoggerFactory.getLogger(BatchIngestService.class);
+    private static final Set<String> ALLOWED_EXTENSIONS = Set.of("png", "jpg", "jpeg", "cr2");
+
+    @Autowired
+    private IngestService ingestService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private RawDeveloper rawDeveloper;
+
+    private final ExecutorService executor;
+    private final int filesInFlight;
+    private final long maxFileBytes;
+    private final int maxZipEntries;
+    private final long maxZipBytes;
+
+    /**
+     * One file of a batch. {@code spool} writes its bytes to the given local file.
+     */
+    public record Item(String name, Spooler spool) {
+    }
+
+    @FunctionalInterface
+    public interface Spooler {
+        void spool(Path target) throws IOException;
+    }
+
+    /**
+     * Yields the files of a batch in order, then null.
+     */
+    @FunctionalInterface
+    public interface ItemSource {
+        Item next() throws IOException;
+    }
+
+    public BatchIngestService(@Value("${uploads.batch.parallelism:4}") int parallelism,
+                              @Value("${uploads.batch.files-in-flight:16}") int filesInFlight,
+                              @Value("${uploads.stream.max-bytes:1073741824}") long maxFileBytes,
+                              @Value("${uploads.batch.zip.max-entries:10000}") int maxZipEntries,
+                              @Value("${uploads.batch.zip.max-bytes:68719476736}") long maxZipBytes) {
+        this.executor = Executors.newFixedThreadPool(parallelism, Thread.ofPlatform().name("batch-ingest-", 0).daemon(true).factory());
+        this.filesInFlight = Math.max(1, filesInFlight);
+        this.maxFileBytes = maxFileBytes;
+        this.maxZipEntries = maxZipEntries;
+        this.maxZipBytes = maxZipBytes;
+    }
+
+    /**
+     * The files of a zip archive, skipping directories and macOS metadata. Each file may expand
+     * to at most {@code uploads.stream.max-bytes}, and the archive as a whole is capped in both
+     * entries and expanded bytes, so a small archive cannot fill the local disk.
+     */
+    public ItemSource zipEntries(ZipInputStream zip) {
+        return new ZipItems(zip);
+    }
+
+    /**
+     * Ingests every item of the source into the category, writing one JSON line per file and
+     * a final summary line to {@code outputStream}.
+     */
+    public void ingest(UUID category, ItemSource source, OutputStream outputStream) throws IOException {
+        // Bounds the spooled files waiting for a worker, and so the local disk used by a batch.
+        Semaphore permits = new Semaphore(filesInFlight);
+        CompletionService<Map<String, Object>> completion = new ExecutorCompletionService<>(executor);
+        Progress progress = new Progress();
+
+        try {
+            while (true) {
+                Item item;
+                try {
+                    item = source.next();
+                } catch (IOException e) {
+                    // The rest of the batch cannot be read; report it and finish what was queued.
+                    progress.record(outputStream, result(null, null, null, "Could not read the batch: " + e.getMessage()));
+                    break;
+                }
+                if (item == null) {
+                    break;
+                }
+
+                String name = item.name();
+                String extension = FilenameUtils.getExtension(name).toLowerCase();
+                if (!ALLOWED_EXTENSIONS.contains(extension)) {
+                    progress.record(outputStream, result(name, null, null, "Invalid file type. Only PNG, JPEG, and CR2 are allowed."));
+                    continue;
+                }
+
+                if (!rawDeveloper.accepts(name)) {
+                    progress.record(outputStream, result(name, null, null, "Too many RAW files are waiting to be developed, try again later."));
+                    continue;
+                }
+
+                while (!permits.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+                    drain(completion, progress, outputStream, false);
+                }
+
+                String baseFileName = UUID.randomUUID().toString();
+                Path spooled = null;
+                try {
+                    spooled = Files.createTempFile(baseFileName, "." + extension);
+                    item.spool().spool(spooled);
+                } catch (IOException e) {
+                    permits.release();
+                    deleteQuietly(spooled);
+                    progress.record(outputStream, result(name, null, null, "File processing error: " + e.getMessage()));
+                    continue;
+                }
+
+                Path file = spooled;
+                completion.submit(() -> {
+                    try {
+                        return ingestOne(category, name, baseFileName, extension, file);
+                    } finally {
+                        permits.release();
+                    }
+                });
+                progress.pending++;
+                drain(completion, progress, outputStream, false);
+            }
+
+            drain(completion, progress, outputStream, true);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Batch upload interrupted");
+        }
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("done", true);
+        summary.put("queued", progress.queued);
+        summary.put("failed", progress.failed);
+        write(outputStream, summary);
+        logger.info("Batch upload into category {}: {} queued, {} failed.", category, progress.queued, progress.failed);
+    }
+
+    private Map<String, Object> ingestOne(UUID category, String name, String baseFileName, String extension, Path file) {
+        String fileName = baseFileName + "." + extension;
+        try {
+            // The job takes ownership of the local file, and deletes it if storing fails.
+            Job job = ingestService.ingest(category, fileName, IngestService.contentType(extension), file);
+            return result(name, fileName, job.getId(), null);
+        } catch (MinioException | NoSuchAlgorithmException | InvalidKeyException e) {
+            return result(name, null, null, "Error uploading photo: " + e.getMessage());
+        } catch (IOException e) {
+            return result(name, null, null, "File processing error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the results of finished files, waiting for all outstanding ones if {@code all}.
+     */
+    private void drain(CompletionService<Map<String, Object>> completion, Progress progress,
+                       OutputStream outputStream, boolean all) throws IOException, InterruptedException {
+        while (progress.pending > 0) {
+            Future<Map<String, Object>> done = all ? completion.take() : completion.poll();
+            if (done == null) {
+                return;
+            }
+            progress.pending--;
+            Map<String, Object> result;
+            try {
+                result = done.get();
+            } catch (ExecutionException e) {
+                result = result(null, null, null, "Unexpected error: " + e.getCause().getMessage());
+            }
+            progress.record(outputStream, result);
+        }
+    }
+
+    private Map<String, Object> result(String name, String fileName, UUID jobId, String error) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("file", name);
+        if (error != null) {
+            result.put("error", error);
+        } else {
+            result.put("fileName", fileName);
+            result.put("jobId", jobId);
+        }
+        return result;
+    }
+
+    private final class ZipItems implements ItemSource {
+        private final ZipInputStream zip;
+        private int entries;
+        private long bytes;
+
+        private ZipItems(ZipInputStream zip) {
+            this.zip = zip;
+        }
+
+        @Override
+        public Item next() throws IOException {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (++entries > maxZipEntries) {
+                    throw new IOException("Archive has more than " + maxZipEntries + " entries");
+                }
+                if (bytes >= maxZipBytes) {
+                    throw new IOException("Archive expands to more than " + maxZipBytes + " bytes");
+                }
+                String name = entry.getName();
+                String baseName = FilenameUtils.getName(name);
+                if (!entry.isDirectory() && !name.startsWith("__MACOSX/") && !baseName.startsWith(".")) {
+                    return new Item(name, this::spool);
+                }
+            }
+            return null;
+        }
+
+        private void spool(Path target) throws IOException {
+            // Not closed: that would close the archive, not just this entry.
+            MeasuringInputStream entry = new MeasuringInputStream(zip, Math.min(maxFileBytes, maxZipBytes - bytes));
+            try {
+                Files.copy(entry, target, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                bytes += entry.getCount();
+            }
+        }
+    }
+
+    private final class Progress {
+        private int pending;
+        private int queued;
+        private int failed;
+
+        private void record(OutputStream outputStream, Map<String, Object> result) throws IOException {
+            if (result.containsKey("error")) {
+                failed++;
+            } else {
+                queued++;
+            }
+            write(outputStream, result);
+        }
+    }
+
+    private void write(OutputStream outputStream, Map<String, Object> line) throws IOException {
+        outputStream.write(objectMapper.writeValueAsBytes(line));
+        outputStream.write('\n');
+        outputStream.flush();
+    }
+
+    private static void deleteQuietly(Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.warn("Could not delete {}: {}", file, e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,128 @@
+package me.danb76.photos.service;
+
+import io.minio.GetObjectArgs;
+import io.minio.GetObjectResponse;
+import io.minio.MinioClient;
+import io.minio.errors.MinioException;
+import me.danb76.photos.database.repositories.PhotosRepository;
+import me.danb76.photos.database.tables.Photo;
+import me.danb76.photos.service.image.ExifData;
+import me.danb76.photos.service.image.ExifReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One-off job that fills in the EXIF columns of photos ingested before they existed. Only the
+ * first {@link ExifReader#MAX_HEADER_BYTES} of each original are fetched, with a ranged GET.
+ * Renditions are left as they are, so the EXIF orientation is recorded on its own and the
+ * orientation the renditions were drawn with is not changed.
+ */
+@Service
+public class ExifBackfillService {
+    private static final Logger logger = LoggerFactory.getLogger(ExifBackfillService.class);
+
+    @Autowired
+    private PhotosRepository repository;
+
+    @Autowired
+    private MinioClient minioClient;
+
+    @Value("${jobs.backfill.batch-size:100}")
+    private int batchSize;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicInteger processed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    /**
+     * Starts the backfill in the background.
+     *
+     * @return false if a backfill is already running
+     */
+    public boolean start() {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        processed.set(0);
+        failed.set(0);
+        Thread.ofVirtual().name("exif-backfill").start(this::run);
+        return true;
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    public int getProcessed() {
+        return processed.get();
+    }
+
+    public int getFailed() {
+        return failed.get();
+    }
+
+    private void run() {
+        logger.info("EXIF backfill started.");
+        try {
+            UUID last = null;
+            while (true) {
+                List<Photo> batch = last == null
+                        ? repository.findFirstById(Limit.of(batchSize))
+                        : repository.findAfterId(last, Limit.of(batchSize));
+                if (batch.isEmpty()) {
+                    break;
+                }
+
+                for (Photo photo : batch) {
+                    OriginalHeader header;
+                    try {
+                        header = readHeader(photo);
+                    } catch (IOException | MinioException | InvalidKeyException | NoSuchAlgorithmException e) {
+                        logger.warn("Could not read EXIF of photo {}: {}", photo.getId(), e.getMessage());
+                        failed.incrementAndGet();
+                        continue;
+                    }
+                    // The read is slow, so write the EXIF columns alone rather than the whole, possibly stale, row.
+                    ExifData exif = header.exif();
+                    repository.updateExif(photo.getId(), exif.capturedAt(), header.storedAt(), exif.orientation(),
+                            exif.make(), exif.model(), exif.lens(), exif.exposureTime(), exif.aperture(), exif.iso(),
+                            exif.focalLength());
+                    processed.incrementAndGet();
+                }
+                last = batch.get(batch.size() - 1).getId();
+            }
+            logger.info("EXIF backfill finished: {} photos updated, {} failed.", processed.get(), failed.get());
+        } catch (RuntimeException e) {
+            logger.error("EXIF backfill aborted after {} photos", processed.get(), e);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private record OriginalHeader(ExifData exif, long storedAt) {
+    }
+
+    private OriginalHeader readHeader(Photo photo) throws IOException, MinioException, InvalidKeyException, NoSuchAlgorithmException {
+        try (GetObjectResponse response = minioClient.getObject(GetObjectArgs.builder()
+                .bucket(photo.getCategory().toString())
+                .object(photo.getFullPhoto())
+                .offset(0L)
+                .length((long) ExifReader.MAX_HEADER_BYTES).build())) {
+            Date lastModified = response.headers().getDate("Last-Modified");
+            return new OriginalHeader(ExifReader.read(response), lastModified != null ? lastModified.getTime() : 0);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package me.danb76.photos.service;
+
+import io.minio.MinioClient;
+import io.minio.PutObjectArgs;
+import io.minio.RemoveObjectArgs;
+import io.minio.errors.MinioException;
+import me.danb76.photos.database.repositories.JobsRepository;
+import me.danb76.photos.database.tables.Job;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.UUID;
+
+/**
+ * Writes uploaded files to storage and turns them into photo jobs.
+ * <p>
+ * Single-call ingest writes the original straight into its category bucket, so it is neither
+ * staged in the uploads bucket nor copied later. When the file is still on local disk it is
+ * handed to a worker as well, so it is not downloaded again either. The job row still records
+ * the work, so a crash before the renditions are done is recovered from the stored original.
+ */
+@Service
+public class IngestService {
+    private static final Logger logger = LoggerFactory.getLogger(IngestService.class);
+
+    @Autowired
+    private MinioClient minioClient;
+
+    @Autowired
+    private JobsRepository jobsRepository;
+
+    @Autowired
+    private JobsService jobsService;
+
+    // Streams of unknown length are uploaded as a multipart upload, buffering one part at a time.
+    @Value("${uploads.stream.part-size:16777216}")
+    private long partSize;
+
+    @Value("${uploads.stream.max-bytes:1073741824}")
+    private long maxBytes;
+
+    public record StoredObject(String bucket, String objectName, long size, String sha256) {
+    }
+
+    /**
+     * Streams {@code inputStream} into storage as it arrives, computing its size and SHA-256
+     * on the way. A {@code size} of -1 means the length is not known up front.
+     */
+    public StoredObject store(String bucket, String objectName, String contentType, InputStream inputStream, long size) throws IOException, MinioException, InvalidKeyException, NoSuchAlgorithmException {
+        MeasuringInputStream measured = new MeasuringInputStream(inputStream, MessageDigest.getInstance("SHA-256"), maxBytes);
+        minioClient.putObject(PutObjectArgs.builder()
+                .bucket(bucket)
+                .object(objectName)
+                .stream(measured, size, size >= 0 ? -1 : partSize)
+                .contentType(contentType)
+                .build());
+        return new StoredObject(bucket, objectName, measured.getCount(),
+                HexFormat.of().formatHex(measured.getMessageDigest().digest()));
+    }
+
+    /**
+     * Stores {@code localFile} as the original of a new photo and queues its renditions. Takes
+     * ownership of the file, which is deleted once processing is done with it.
+     *
+     * @return the job that creates the photo
+     */
+    public Job ingest(UUID category, String fileName, String contentType, Path localFile) throws IOException, MinioException, InvalidKeyException, NoSuchAlgorithmException {
+        boolean handedOff = false;
+        try {
+            try (InputStream inputStream = Files.newInputStream(localFile)) {
+                store(category.toString(), RenditionType.ORIGINAL.objectName(fileName), contentType, inputStream, Files.size(localFile));
+            }
+
+            Job job = createJob(category, fileName);
+            boolean queued = jobsService.dispatch(job, localFile);
+            // From here the file belongs to the job, which deletes it whether or not it was queued.
+            handedOff = true;
+            if (!queued) {
+                logger.info("Job {} could not be queued, it will be processed from storage by the recovery sweep.", job.getId());
+            }
+            return job;
+        } finally {
+            if (!handedOff) {
+                Files.deleteIfExists(localFile);
+            }
+        }
+    }
+
+    /**
+     * Streams the original of a new photo into its category bucket and queues its renditions.
+     * The worker reads the original back from storage, since nothing is kept locally.
+     */
+    public Job ingest(UUID category, String fileName, String contentType, InputStream inputStream, long size) throws IOException, MinioException, InvalidKeyException, NoSuchAlgorithmException {
+        store(category.toString(), RenditionType.ORIGINAL.objectName(fileName), contentType, inputStream, size);
+        return ingestStored(category, fileName);
+    }
+
+    /**
+     * Queues the renditions of an original that is already stored in its category bucket.
+     */
+    public Job ingestStored(UUID category, String fileName) {
+        Job job = createJob(category, fileName);
+        if (!jobsService.dispatch(job)) {
+            logger.info("Job {} could not be queued, it will be processed by the recovery sweep.", job.getId());
+        }
+        return job;
+    }
+
+    /**
+     * The content type an original with this file extension is stored under.
+     */
+    public static String contentType(String extension) {
+        String lowerCase = extension.toLowerCase();
+        return lowerCase.equals("cr2") ? "image/x-canon-cr2" : "image/" + lowerCase;
+    }
+
+    private Job createJob(UUID category, String fileName) {
+        Job job = new Job();
+        job.setCategory(category);
+        job.setFileName(fileName);
+        job.setSourceBucket(category.toString());
+        try {
+            return jobsRepository.save(job);
+        } catch (RuntimeException e) {
+            // Without a job nothing will ever turn the stored original into a photo.
+            removeOriginal(category, fileName);
+            throw e;
+        }
+    }
+
+    /**
+     * Removes an original stored in its category bucket by ingest that never became a photo.
+     */
+    private void removeOriginal(UUID category, String fileName) {
+        try {
+            minioClient.removeObject(RemoveObjectArgs.builder()
+                    .bucket(category.toString())
+                    .object(RenditionType.ORIGINAL.objectName(fileName)).build());
+        } catch (IOException | MinioException | InvalidKeyException | NoSuchAlgorithmException e) {
+            logger.warn("Could not remove orphaned original {} from category {}: {}", fileName, category, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package me.danb76.photos.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Component
+public class JobExecutor {
+    private static final Logger logger = LoggerFactory.getLogger(JobExecutor.class);
+
+    private final ThreadPoolExecutor executor;
+
+    // Job ids that are queued or running on this node, so a job is never handed to two workers.
+    private final Set<UUID> claimed = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    public JobExecutor(@Value("${jobs.executor.threads:4}") int threads,
+                       @Value("${jobs.executor.virtual-threads:false}") boolean virtualThreads,
+                       @Value("${jobs.executor.queue-capacity:1000}") int queueCapacity,
+                       MeterRegistry meterRegistry) {
+        ThreadFactory threadFactory = virtualThreads
+                ? Thread.ofVirtual().name("job-worker-", 0).factory()
+                : Thread.ofPlatform().name("job-worker-", 0).daemon(true).factory();
+
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(queueCapacity), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+
+        Gauge.builder("photos.jobs.queue.depth", this, JobExecutor::getQueueDepth)
+                .description("Jobs waiting for a worker")
+                .register(meterRegistry);
+        Gauge.builder("photos.jobs.in.flight", this, JobExecutor::getInFlight)
+                .description("Jobs currently being processed")
+                .register(meterRegistry);
+
+        logger.info("Job executor started with {} {} workers and a queue of {}.",
+                threads, virtualThreads ? "virtual" : "platform", queueCapacity);
+    }
+
+    /**
+     * Queues a job for processing. Returns false if the job is already queued or running
+     * on this node, or if the queue is full; in both cases the caller should leave the job
+     * for a later sweep.
+     */
+    public boolean submit(UUID jobId, Runnable task) {
+        if (!claimed.add(jobId)) {
+            logger.debug("Job {} is already queued or running, skipping.", jobId);
+            return false;
+        }
+
+        try {
+            executor.execute(() -> {
+                inFlight.incrementAndGet();
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    logger.error("Unhandled exception while processing job {}", jobId, e);
+                } finally {
+                    inFlight.decrementAndGet();
+                    claimed.remove(jobId);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            claimed.remove(jobId);
+            logger.warn("Job queue is full, job {} will be picked up by a later sweep.", jobId);
+            return false;
+        }
+    }
+
+    public boolean isClaimed(UUID jobId) {
+        return claimed.contains(jobId);
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getRemainingCapacity() {
+        return executor.getQueue().remainingCapacity();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,108 @@
+package me.danb76.photos.service;
+
+import me.danb76.photos.database.repositories.JobsRepository;
+import me.danb76.photos.database.tables.Job;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hands out time-limited leases on pending jobs so that several replicas can share the
+ * backlog. A job whose owner dies becomes claimable again once its lease expires; while a
+ * worker is busy with a job its lease is renewed periodically, so a slow job is never taken
+ * over by another node mid-way.
+ */
+@Service
+public class JobLeaseService {
+    private static final Logger logger = LoggerFactory.getLogger(JobLeaseService.class);
+
+    @Autowired
+    private JobsRepository repository;
+
+    @Value("${jobs.lease.duration:600000}")
+    private long leaseDurationMs;
+
+    private final String nodeId;
+
+    // Jobs a worker on this node is processing right now, whose leases are kept alive.
+    private final Set<UUID> active = ConcurrentHashMap.newKeySet();
+
+    public JobLeaseService(@Value("${jobs.node-id:}") String nodeId) {
+        this.nodeId = nodeId.isBlank() ? defaultNodeId() : nodeId;
+        logger.info("Claiming jobs as node {}", this.nodeId);
+    }
+
+    @Transactional
+    public List<Job> claimBatch(int limit) {
+        long now = System.currentTimeMillis();
+        List<Job> jobs = repository.findClaimable(now, PageRequest.of(0, limit));
+        for (Job job : jobs) {
+            job.setClaimedBy(nodeId);
+            job.setLeaseExpiry(now + leaseDurationMs);
+        }
+        repository.saveAll(jobs);
+        return jobs;
+    }
+
+    /**
+     * Claims a single job, or renews the lease if this node already holds it.
+     */
+    @Transactional
+    public boolean claim(UUID jobId) {
+        long now = System.currentTimeMillis();
+        return repository.claim(jobId, nodeId, now + leaseDurationMs, now) == 1;
+    }
+
+    @Transactional
+    public void release(UUID jobId) {
+        repository.release(jobId, nodeId);
+    }
+
+    /**
+     * Keeps renewing the lease on the job until {@link #stopRenewing} is called.
+     */
+    public void startRenewing(UUID jobId) {
+        active.add(jobId);
+    }
+
+    public void stopRenewing(UUID jobId) {
+        active.remove(jobId);
+    }
+
+    // Renews well before expiry, so one missed run does not lose a lease.
+    @Transactional
+    @Scheduled(fixedRateString = "${jobs.lease.renew-interval:60000}")
+    public void renewActive() {
+        if (active.isEmpty()) {
+            return;
+        }
+        int renewed = repository.renew(List.copyOf(active), nodeId, System.currentTimeMillis() + leaseDurationMs);
+        logger.debug("Renewed {} of {} active job leases.", renewed, active.size());
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    private static String defaultNodeId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            host = "node";
+        }
+        return host + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+}
@@ -5,12 +5,12 @@ import io.minio.CopySource;
 import io.minio.GetObjectArgs;
 import io.minio.GetObjectResponse;
 import io.minio.MinioClient;
-import io.minio.PutObjectArgs;
 import io.minio.RemoveObjectArgs;
 import io.minio.errors.ErrorResponseException;
 import io.minio.errors.InsufficientDataException;
 import io.minio.errors.InternalException;
 import io.minio.errors.InvalidResponseException;
+import io.minio.errors.MinioException;
 import io.minio.errors.ServerException;
 import io.minio.errors.XmlParserException;
 import me.danb76.photos.database.controller.PhotoController;
@@ -19,33 +19,36 @@ import me.danb76.photos.database.repositories.JobsRepository;
 import me.danb76.photos.database.tables.Category;
 import me.danb76.photos.database.tables.Job;
 import me.danb76.photos.database.tables.Photo;
-import org.imgscalr.Scalr;
+import me.danb76.photos.service.image.DecodedImage;
+import me.danb76.photos.service.image.ExifData;
+import me.danb76.photos.service.image.ExifReader;
+import me.danb76.photos.service.image.ImageDecoder;
+import me.danb76.photos.service.image.RawPreview;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.ResponseBody;
 
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
-import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 @Service
 public class JobsService {
     private static final Logger logger = LoggerFactory.getLogger(JobsService.class);
-    private static final String THUMBNAIL_PREFIX_480 = "480_";
-    private static final String THUMBNAIL_PREFIX_1080 = "1080_";
-    private static final String ORIGINAL_PREFIX = "original_";
     private static final long JOB_EXPIRY_TIME_MS = 15 * 60 * 1000; // 15 minutes
 
     @Autowired
@@ -57,165 +60,324 @@ public class JobsService {
     @Autowired
     private PhotoController photoController;
 
+    @Autowired
+    private JobExecutor jobExecutor;
+
+    @Autowired
+    private JobLeaseService jobLeases;
+
+    @Autowired
+    private RenditionPipeline renditionPipeline;
+
+    @Autowired
+    private ImageDecoder imageDecoder;
+
+    @Autowired
+    private RawDeveloper rawDeveloper;
+
+    @Autowired
+    private RotationService rotationService;
+
+    @Value("${jobs.claim.batch-size:50}")
+    private int claimBatchSize;
+
+    /**
+     * Hands a freshly posted job straight to the worker pool. The job row is the durable
+     * record, so if the queue is full or the node restarts the recovery sweep picks it up.
+     */
+    public boolean dispatch(Job job) {
+        if (!jobLeases.claim(job.getId())) {
+            logger.debug("Job {} is leased by another node.", job.getId());
+            return false;
+        }
+        return submit(job.getId());
+    }
+
+    /**
+     * Like {@link #dispatch(Job)}, but the worker reads the source from {@code localSource}
+     * instead of downloading it again. The file is deleted once the job is done with it, or
+     * straight away if the job cannot be queued, in which case the recovery sweep processes
+     * it from storage later.
+     */
+    public boolean dispatch(Job job, Path localSource) {
+        if (!jobLeases.claim(job.getId())) {
+            logger.debug("Job {} is leased by another node.", job.getId());
+            deleteQuietly(localSource);
+            return false;
+        }
+        if (jobExecutor.submit(job.getId(), () -> {
+            try {
+                process(job.getId(), localSource);
+            } finally {
+                deleteQuietly(localSource);
+            }
+        })) {
+            return true;
+        }
+        if (!jobExecutor.isClaimed(job.getId())) {
+            jobLeases.release(job.getId());
+        }
+        deleteQuietly(localSource);
+        return false;
+    }
+
+    // Recovery sweep for jobs that were never dispatched, e.g. posted before a restart or
+    // leased by a node that has since died.
     @Async
-    @Scheduled(fixedRate = 60000)
+    @Scheduled(fixedRateString = "${jobs.sweep.interval:60000}")
     public void task() {
         logger.info("Looking for jobs to process.");
-        Iterator<Job> iterator = repository.findAll().iterator();
-        while (iterator.hasNext()) {
-            Job job = iterator.next();
-            logger.debug("Processing job: {}", job);
-            iterator.remove();
-
-            if (job.isProcessing()) {
-                logger.info("Processing file: {} for category: {}", job.getFileName(), job.getCategory());
-                try {
-                    GetObjectResponse response = minioClient.getObject(GetObjectArgs.builder()
-                            .bucket(UploadController.UPLOADS_BUCKET)
-                            .object(job.getFileName()).build());
-
-                    try (InputStream inputStream = response) {
-                        BufferedImage originalImage = ImageIO.read(inputStream);
-                        if (originalImage == null) {
-                            logger.warn("Failed to read image file: {}", job.getFileName());
-                            updateJobStatus(job, false, false, "Failed to read image file.");
-                            continue;
-                        }
-
-                        String lowRes = generateImageThumbnail(job.getCategory(), originalImage, THUMBNAIL_PREFIX_480 + job.getFileName(), 480);
-                        String highRes = generateImageThumbnail(job.getCategory(), originalImage, THUMBNAIL_PREFIX_1080 + job.getFileName(), 1080);
-                        String fullPhoto = ORIGINAL_PREFIX + job.getFileName();
-
-                        minioClient.copyObject(CopyObjectArgs.builder()
-                                .source(CopySource.builder()
-                                        .bucket(UploadController.UPLOADS_BUCKET)
-                                        .object(job.getFileName()).build())
-                                .bucket(job.getCategory().toString())
-                                .object(fullPhoto).build());
-
-                        Photo photo = new Photo();
-                        photo.setLowRes(lowRes);
-                        photo.setHighRes(highRes);
-                        photo.setFullPhoto(fullPhoto);
-                        photo.setCategory(job.getCategory());
-
-                        photoController.getRepository().save(photo);
-
-                        minioClient.removeObject(RemoveObjectArgs.builder()
-                                .bucket(UploadController.UPLOADS_BUCKET)
-                                .object(job.getFileName()).build());
-
-                        updateJobStatus(job, false, true, "Generated all thumbnails and copied original.");
-                        logger.info("Successfully processed file: {} for category: {}", job.getFileName(), job.getCategory());
-
-                        // TODO post to photos repository.
-                        logger.debug("TODO: Post processed photo metadata to photos repository for file: {}", job.getFileName());
-
-                    } catch (IOException e) {
-                        logger.error("IO Exception while processing file: {}", job.getFileName(), e);
-                        updateJobStatus(job, false, false, "IO Error: " + e.getMessage());
-                    }
-                } catch (ErrorResponseException e) {
-                    logger.error("MinIO Error Response Exception while getting file: {}", job.getFileName(), e);
-                    updateJobStatus(job, false, false, "MinIO Error: " + e.getMessage());
-                } catch (InsufficientDataException e) {
-                    logger.error("MinIO Insufficient Data Exception while getting file: {}", job.getFileName(), e);
-                    updateJobStatus(job, false, false, "MinIO Error: " + e.getMessage());
-                } catch (InternalException e) {
-                    logger.error("MinIO Internal Exception while getting file: {}", job.getFileName(), e);
-                    updateJobStatus(job, false, false, "MinIO Error: " + e.getMessage());
-                } catch (InvalidKeyException e) {
-                    logger.error("MinIO Invalid Key Exception while getting file: {}", job.getFileName(), e);
-                    updateJobStatus(job, false, false, "MinIO Error: " + e.getMessage());
-                } catch (InvalidResponseException e) {
-                    logger.error("MinIO Invalid Response Exception while getting file: {}", job.getFileName(), e);
-                    updateJobStatus(job, false, false, "MinIO Error: " + e.getMessage());
-                } catch (NoSuchAlgorithmException e) {
-                    logger.error("No Such Algorithm Exception while getting file: {}", job.getFileName(), e);
-                    updateJobStatus(job, false, false, "Security Error: " + e.getMessage());
-                } catch (ServerException e) {
-                    logger.error("MinIO Server Exception while getting file: {}", job.getFileName(), e);
-                    updateJobStatus(job, false, false, "MinIO Error: " + e.getMessage());
-                } catch (XmlParserException e) {
-                    logger.error("MinIO XML Parser Exception while getting file: {}", job.getFileName(), e);
-                    updateJobStatus(job, false, false, "MinIO Error: " + e.getMessage());
-                } catch (IOException e) {
-                    logger.error("MinIO IO Exception while getting file: {}", job.getFileName(), e);
-                    updateJobStatus(job, false, false, "MinIO Error: " + e.getMessage());
-                }
-            } else {
-                // Delete after 15 minutes.
-                // MinIO handles deleting from upload bucket.
-                // TODO notify user.
-                long jobAge = System.currentTimeMillis() - job.getTimestamp();
-                if (jobAge > JOB_EXPIRY_TIME_MS) {
-                    logger.warn("Deleting expired job: {} for file: {}", job, job.getFileName());
-                    repository.delete(job);
-                    logger.debug("TODO: Notify user about the failed/expired upload: {}", job.getFileName());
-                } else {
-                    logger.debug("Job for file {} is not yet expired ({}ms remaining).", job.getFileName(), JOB_EXPIRY_TIME_MS - jobAge);
+        int queued = 0;
+        int capacity;
+        while ((capacity = Math.min(claimBatchSize, jobExecutor.getRemainingCapacity())) > 0) {
+            List<Job> claimed = jobLeases.claimBatch(capacity);
+            for (Job job : claimed) {
+                if (submit(job.getId())) {
+                    queued++;
                 }
             }
+            if (claimed.size() < capacity) {
+                break;
+            }
         }
-        logger.info("Finished processing jobs for this cycle.");
+
+        // Finished jobs are kept for 15 minutes so the client can read the result.
+        // MinIO handles deleting from upload bucket.
+        // TODO notify user.
+        int expired = repository.deleteExpired(System.currentTimeMillis() - JOB_EXPIRY_TIME_MS);
+        if (expired > 0) {
+            logger.info("Deleted {} expired jobs.", expired);
+        }
+        logger.info("Recovery sweep queued {} jobs ({} waiting, {} in flight).", queued, jobExecutor.getQueueDepth(), jobExecutor.getInFlight());
     }
 
-    private void updateJobStatus(Job job, boolean processing, boolean success, String reason) {
-        job.setProcessing(processing);
-        job.setSuccess(success);
-        job.setReason(reason);
-        repository.save(job);
-        logger.debug("Updated job status for file {}: Processing={}, Success={}, Reason='{}'", job.getFileName(), processing, success, reason);
+    private boolean submit(UUID jobId) {
+        if (jobExecutor.submit(jobId, () -> process(jobId))) {
+            return true;
+        }
+        // Queue full: give the lease back so another node can take the job.
+        if (!jobExecutor.isClaimed(jobId)) {
+            jobLeases.release(jobId);
+        }
+        return false;
     }
 
-    private String generateImageThumbnail(UUID categoryId, BufferedImage originalImage, String outputFileName, int maxHeight) {
-        logger.debug("Generating thumbnail: {} for category: {} with max height: {}", outputFileName, categoryId, maxHeight);
+    /**
+     * Copies the EXIF fields onto the photo; the capture time falls back to the upload time.
+     */
+    static void applyExif(Photo photo, ExifData exif) {
+        photo.setCapturedAt(exif.capturedAt() != null ? exif.capturedAt() : photo.getCreatedAt());
+        photo.setOrientation(exif.orientation());
+        photo.setExifOrientation(exif.orientation());
+        photo.setCameraMake(exif.make());
+        photo.setCameraModel(exif.model());
+        photo.setLens(exif.lens());
+        photo.setExposureTime(exif.exposureTime());
+        photo.setAperture(exif.aperture());
+        photo.setIso(exif.iso());
+        photo.setFocalLength(exif.focalLength());
+    }
+
+    private static long contentLength(GetObjectResponse response) {
+        String contentLength = response.headers().get("Content-Length");
+        try {
+            return contentLength != null ? Long.parseLong(contentLength) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
         try {
-            BufferedImage scaledImage;
-                int originalWidth = originalImage.getWidth();
-                int originalHeight = originalImage.getHeight();
-                int newWidth = originalWidth;
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.warn("Could not delete {}: {}", file, e.getMessage());
+        }
+    }
 
-                if (originalHeight > maxHeight) {
-                    newWidth = (int) Math.round((double) maxHeight / originalHeight * originalWidth);
+    private void process(UUID jobId) {
+        process(jobId, null);
+    }
+
+    private void process(UUID jobId, Path localSource) {
+        // Renew the lease before starting; fails if another node took over while this job was queued.
+        if (!jobLeases.claim(jobId)) {
+            logger.debug("Job {} is no longer pending or is leased by another node, skipping.", jobId);
+            return;
+        }
+
+        jobLeases.startRenewing(jobId);
+        try {
+            processClaimed(jobId, localSource);
+        } finally {
+            jobLeases.stopRenewing(jobId);
+        }
+    }
+
+    private void processClaimed(UUID jobId, Path localSource) {
+
+        Job job = repository.findById(jobId).orElse(null);
+        if (job == null || !job.isProcessing()) {
+            logger.debug("Job {} is no longer pending, skipping.", jobId);
+            return;
+        }
+
+        logger.info("Processing file: {} for category: {}", job.getFileName(), job.getCategory());
+        // Fused uploads put the original straight into the category bucket; others wait in uploads.
+        boolean inUploads = job.getSourceBucket() == null;
+        String fullPhoto = RenditionType.ORIGINAL.objectName(job.getFileName());
+        try {
+            InputStream source;
+            long sourceSize;
+            if (localSource != null) {
+                source = Files.newInputStream(localSource);
+                sourceSize = Files.size(localSource);
+            } else {
+                GetObjectResponse response = minioClient.getObject(GetObjectArgs.builder()
+                        .bucket(inUploads ? UploadController.UPLOADS_BUCKET : job.getSourceBucket())
+                        .object(inUploads ? job.getFileName() : fullPhoto).build());
+                source = response;
+                sourceSize = contentLength(response);
+            }
+
+            try (InputStream inputStream = new BufferedInputStream(source)) {
+                Photo photo = new Photo();
+
+                // EXIF comes from the header segments alone; rewind so the decoder sees the whole file.
+                inputStream.mark(ExifReader.MAX_HEADER_BYTES);
+                ExifData exif = ExifReader.read(inputStream);
+                inputStream.reset();
+                applyExif(photo, exif);
+
+                // RAW files are rendered from the JPEG preview the camera embedded in them.
+                boolean raw = RawPreview.isRaw(job.getFileName());
+                InputStream imageStream = inputStream;
+                if (raw) {
+                    byte[] preview = RawPreview.extract(inputStream);
+                    if (preview == null) {
+                        logger.warn("No embedded preview in RAW file: {}", job.getFileName());
+                        updateJobStatus(job, false, false, "RAW file has no embedded preview.");
+                        return;
+                    }
+                    imageStream = new ByteArrayInputStream(preview);
+                }
+
+                Map<Integer, Rendition> renditions;
+                try (DecodedImage decoded = imageDecoder.decode(imageStream, RenditionPipeline.HIGH_RES_HEIGHT)) {
+                    if (decoded == null) {
+                        logger.warn("Failed to read image file: {}", job.getFileName());
+                        updateJobStatus(job, false, false, "Failed to read image file.");
+                        return;
+                    }
+                    renditions = renditionPipeline.render(job.getCategory(), decoded.getImage(), exif.orientation(), job.getFileName());
+                    if (exif.swapsDimensions()) {
+                        photo.setDimensions(decoded.getSourceHeight(), decoded.getSourceWidth());
+                    } else {
+                        photo.setDimensions(decoded.getSourceWidth(), decoded.getSourceHeight());
+                    }
+                    photo.setPlaceholder(renditionPipeline.placeholder(decoded.getImage(), exif.orientation()));
                 }
-                scaledImage = Scalr.resize(originalImage, Scalr.Method.QUALITY, Scalr.Mode.FIT_TO_HEIGHT, newWidth, maxHeight);
 
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            ImageIO.write(scaledImage, "jpg", outputStream);
-            byte[] thumbnailBytes = outputStream.toByteArray();
+                Rendition lowRes = renditions.get(RenditionPipeline.LOW_RES_HEIGHT);
+                Rendition highRes = renditions.get(RenditionPipeline.HIGH_RES_HEIGHT);
 
-            minioClient.putObject(PutObjectArgs.builder()
-                    .bucket(categoryId.toString())
-                    .object(outputFileName)
-                    .stream(new ByteArrayInputStream(thumbnailBytes), thumbnailBytes.length, -1)
-                    .contentType("image/jpeg")
-                    .build());
+                if (inUploads) {
+                    minioClient.copyObject(CopyObjectArgs.builder()
+                            .source(CopySource.builder()
+                                    .bucket(UploadController.UPLOADS_BUCKET)
+                                    .object(job.getFileName()).build())
+                            .bucket(job.getCategory().toString())
+                            .object(fullPhoto).build());
+                }
 
-            outputStream.close();
+                photo.setLowRes(lowRes.objectName());
+                photo.setLowResRendition(lowRes.width(), lowRes.height(), lowRes.bytes());
+                photo.setHighRes(highRes.objectName());
+                photo.setHighResRendition(highRes.width(), highRes.height(), highRes.bytes());
+                photo.setFullPhoto(fullPhoto);
+                photo.setFullPhotoBytes(sourceSize);
+                photo.setCategory(job.getCategory());
+                photo.setDevelopPending(raw && rawDeveloper.isEnabled());
 
-            logger.debug("Successfully generated and uploaded thumbnail: {} to category: {}", outputFileName, categoryId);
+                photoController.getRepository().save(photo);
+                if (photo.isDevelopPending() && !rotationService.scheduleDevelop(photo.getId())) {
+                    logger.warn("RAW develop queue is full, photo {} will be developed by the sweep.", photo.getId());
+                }
 
-        } catch (IOException e) {
-            logger.error("IO Exception while generating thumbnail: {}", outputFileName, e);
-        } catch (ServerException e) {
-            logger.error("MinIO Server Exception while uploading thumbnail: {}", outputFileName, e);
-        } catch (InsufficientDataException e) {
-            logger.error("MinIO Insufficient Data Exception while uploading thumbnail: {}", outputFileName, e);
+                if (inUploads) {
+                    minioClient.removeObject(RemoveObjectArgs.builder()
+                            .bucket(UploadController.UPLOADS_BUCKET)
+                            .object(job.getFileName()).build());
+                }
+
+                updateJobStatus(job, false, true, "Generated all thumbnails and copied original.");
+                logger.info("Successfully processed file: {} for category: {}", job.getFileName(), job.getCategory());
+
+            } catch (IOException e) {
+                logger.error("IO Exception while processing file: {}", job.getFileName(), e);
+                updateJobStatus(job, false, false, "IO Error: " + e.getMessage());
+            }
         } catch (ErrorResponseException e) {
-            logger.error("MinIO Error Response Exception while uploading thumbnail: {}", outputFileName, e);
-        } catch (NoSuchAlgorithmException e) {
-            logger.error("No Such Algorithm Exception while uploading thumbnail: {}", outputFileName, e);
+            logger.error("MinIO Error Response Exception while getting file: {}", job.getFileName(), e);
+            updateJobStatus(job, false, false, "MinIO Error: " + e.getMessage());
+        } catch (InsufficientDataException e) {
+            logger.error("MinIO Insufficient Data Exception while getting file: {}", job.getFileName(), e);
+            updateJobStatus(job, false, false, "MinIO Error: " + e.getMessage());
+        } catch (InternalException e) {
+            logger.error("MinIO Internal Exception while getting file: {}", job.getFileName(), e);
+            updateJobStatus(job, false, false, "MinIO Error: " + e.getMessage());
         } catch (InvalidKeyException e) {
-            logger.error("MinIO Invalid Key Exception while uploading thumbnail: {}", outputFileName, e);
+            logger.error("MinIO Invalid Key Exception while getting file: {}", job.getFileName(), e);
+            updateJobStatus(job, false, false, "MinIO Error: " + e.getMessage());
         } catch (InvalidResponseException e) {
-            logger.error("MinIO Invalid Response Exception while uploading thumbnail: {}", outputFileName, e);
+            logger.error("MinIO Invalid Response Exception while getting file: {}", job.getFileName(), e);
+            updateJobStatus(job, false, false, "MinIO Error: " + e.getMessage());
+        } catch (NoSuchAlgorithmException e) {
+            logger.error("No Such Algorithm Exception while getting file: {}", job.getFileName(), e);
+            updateJobStatus(job, false, false, "Security Error: " + e.getMessage());
+        } catch (ServerException e) {
+            logger.error("MinIO Server Exception while getting file: {}", job.getFileName(), e);
+            updateJobStatus(job, false, false, "MinIO Error: " + e.getMessage());
         } catch (XmlParserException e) {
-            logger.error("MinIO XML Parser Exception while uploading thumbnail: {}", outputFileName, e);
-        } catch (InternalException e) {
-            logger.error("MinIO Internal Exception while uploading thumbnail: {}", outputFileName, e);
+            logger.error("MinIO XML Parser Exception while getting file: {}", job.getFileName(), e);
+            updateJobStatus(job, false, false, "MinIO Error: " + e.getMessage());
+        } catch (IOException e) {
+            logger.error("MinIO IO Exception while getting file: {}", job.getFileName(), e);
+            updateJobStatus(job, false, false, "MinIO Error: " + e.getMessage());
+        } catch (RuntimeException e) {
+            // Fail the job rather than leave it processing, or the sweep would retry it forever.
+            logger.error("Unexpected exception while processing file: {}", job.getFileName(), e);
+            updateJobStatus(job, false, false, "Unexpected error: " + e.getMessage());
         }
+    }
 
-        return outputFileName;
+    private void updateJobStatus(Job job, boolean processing, boolean success, String reason) {
+        job.setProcessing(processing);
+        job.setSuccess(success);
+        job.setReason(reason);
+        repository.save(job);
+        if (!processing && !success && job.getSourceBucket() != null) {
+            removeOrphanedOriginal(job);
+        }
+        logger.debug("Updated job status for file {}: Processing={}, Success={}, Reason='{}'", job.getFileName(), processing, success, reason);
+    }
+
+    /**
+     * Single-call ingest stores the original in the category bucket before the job runs. If
+     * the job fails before a photo refers to it, nothing ever will, so remove it.
+     */
+    private void removeOrphanedOriginal(Job job) {
+        String fullPhoto = RenditionType.ORIGINAL.objectName(job.getFileName());
+        if (photoController.getRepository().findFirstByCategoryAndFullPhoto(job.getCategory(), fullPhoto).isPresent()) {
+            return;
+        }
+        try {
+            minioClient.removeObject(RemoveObjectArgs.builder()
+                    .bucket(job.getSourceBucket())
+                    .object(fullPhoto).build());
+            logger.info("Removed original {} of failed job {}", fullPhoto, job.getId());
+        } catch (IOException | MinioException | InvalidKeyException | NoSuchAlgorithmException e) {
+            logger.warn("Could not remove original {} of failed job {}: {}", fullPhoto, job.getId(), e.getMessage());
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,54 @@
+package me.danb76.photos.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+
+/**
+ * Counts, and optionally digests, the bytes read through it, and fails once more than the
+ * limit is read. Closing it closes the underlying stream.
+ */
+public final class MeasuringInputStream extends DigestInputStream {
+    private final long limit;
+    private long count;
+
+    public MeasuringInputStream(InputStream inputStream, MessageDigest digest, long limit) {
+        super(inputStream, digest);
+        this.limit = limit;
+        on(digest != null);
+    }
+
+    public MeasuringInputStream(InputStream inputStream, long limit) {
+        this(inputStream, null, limit);
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0) {
+            counted(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = super.read(b, off, len);
+        if (read > 0) {
+            counted(read);
+        }
+        return read;
+    }
+
+    private void counted(long bytes) throws IOException {
+        count += bytes;
+        if (count > limit) {
+            throw new IOException("Upload exceeds the limit of " + limit + " bytes");
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,155 @@
+package me.danb76.photos.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import me.danb76.photos.service.image.RawPreview;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Develops RAW files into JPEGs with dcraw and ImageMagick. Ingest renders RAW files from
+ * their embedded preview, which takes milliseconds; a full develop takes seconds and a lot of
+ * memory, so it only runs in the background, and only when enabled, to replace the renditions
+ * with ones made from the sensor data.
+ * <p>
+ * Develops run on a small pool of their own with a bounded queue, so a batch of RAW uploads
+ * cannot start more converter processes than the box can take. Each conversion is killed if
+ * it runs past the timeout.
+ */
+@Component
+public class RawDeveloper {
+    private static final Logger logger = LoggerFactory.getLogger(RawDeveloper.class);
+
+    private final boolean enabled;
+    private final Duration timeout;
+    private final ThreadPoolExecutor executor;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Counter timeouts;
+
+    public RawDeveloper(@Value("${photos.raw.develop:false}") boolean enabled,
+                        @Value("${photos.raw.develop.threads:2}") int threads,
+                        @Value("${photos.raw.develop.queue-capacity:100}") int queueCapacity,
+                        @Value("${photos.raw.develop.timeout:2m}") Duration timeout,
+                        MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.timeout = timeout;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(queueCapacity),
+                Thread.ofPlatform().name("raw-develop-", 0).daemon(true).factory(),
+                new ThreadPoolExecutor.AbortPolicy());
+
+        Gauge.builder("photos.raw.develop.queue.depth", this, RawDeveloper::getQueueDepth)
+                .description("RAW develops waiting for a converter")
+                .register(meterRegistry);
+        Gauge.builder("photos.raw.develop.in.flight", this, RawDeveloper::getInFlight)
+                .description("RAW develops currently running")
+                .register(meterRegistry);
+        this.timeouts = Counter.builder("photos.raw.develop.timeouts")
+                .description("Converter processes killed for running past the timeout")
+                .register(meterRegistry);
+
+        if (enabled) {
+            logger.info("RAW develop enabled with {} converters, a queue of {} and a timeout of {}.", threads, queueCapacity, timeout);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Whether a new upload of this file can be accepted, i.e. it is not a RAW file that would
+     * need a develop while the develop queue is full.
+     */
+    public boolean accepts(String fileName) {
+        return !enabled || !RawPreview.isRaw(fileName) || executor.getQueue().remainingCapacity() > 0;
+    }
+
+    /**
+     * Queues a develop task. Returns false if the queue is full.
+     */
+    public boolean submit(Runnable task) {
+        try {
+            executor.execute(() -> {
+                inFlight.incrementAndGet();
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    logger.error("Unhandled exception while developing a RAW file", e);
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            logger.warn("RAW develop queue is full.");
+            return false;
+        }
+    }
+
+    /**
+     * Develops {@code rawFile} to a JPEG in the temp directory, upright as the camera recorded
+     * it. The caller owns the returned file.
+     */
+    public Path develop(Path rawFile) throws IOException, InterruptedException {
+        Path jpegFile = Files.createTempFile("developed-", ".jpg");
+        // Piped without a shell, so the file names are never parsed and every process can be killed.
+        List<Process> pipeline = ProcessBuilder.startPipeline(List.of(
+                new ProcessBuilder("dcraw", "-c", rawFile.toAbsolutePath().toString())
+                        .redirectError(ProcessBuilder.Redirect.DISCARD),
+                new ProcessBuilder("convert", "-", jpegFile.toAbsolutePath().toString())
+                        .redirectError(ProcessBuilder.Redirect.DISCARD)));
+
+        boolean developed = false;
+        try {
+            long deadline = System.nanoTime() + timeout.toNanos();
+            for (Process process : pipeline) {
+                if (!process.waitFor(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                    timeouts.increment();
+                    throw new IOException("Converting CR2 to JPEG took longer than " + timeout.toSeconds() + "s.");
+                }
+                if (process.exitValue() != 0) {
+                    throw new IOException("Failed to convert CR2 to JPEG.");
+                }
+            }
+            developed = true;
+            return jpegFile;
+        } finally {
+            // Kill anything still running after a timeout or an interrupt; a no-op for exited processes.
+            for (Process process : pipeline) {
+                process.destroyForcibly();
+            }
+            if (!developed) {
+                Files.deleteIfExists(jpegFile);
+            }
+        }
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,4 @@
+package me.danb76.photos.service;
+
+public record Rendition(String objectName, int width, int height, long bytes) {
+}
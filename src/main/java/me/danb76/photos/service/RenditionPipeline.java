@@ -0,0 +1,188 @@
+package me.danb76.photos.service;
+
+import io.minio.MinioClient;
+import io.minio.PutObjectArgs;
+import io.minio.RemoveObjectArgs;
+import io.minio.errors.MinioException;
+import jakarta.annotation.PreDestroy;
+import me.danb76.photos.service.image.BlurHash;
+import me.danb76.photos.service.image.Orientation;
+import org.imgscalr.Scalr;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Produces the thumbnail renditions of a decoded image. Renditions are scaled largest to
+ * smallest, each one from the previous rendition rather than from the full image, and each
+ * rendition is encoded and uploaded in parallel as soon as it has been scaled.
+ */
+@Service
+public class RenditionPipeline {
+    private static final Logger logger = LoggerFactory.getLogger(RenditionPipeline.class);
+
+    public static final int HIGH_RES_HEIGHT = 1080;
+    public static final int LOW_RES_HEIGHT = 480;
+
+    // The placeholder is computed from a copy no larger than this on either side.
+    private static final int PLACEHOLDER_SIZE = 32;
+
+    // Largest first, each rendition is scaled from the one before it.
+    private static final Map<Integer, String> RENDITIONS = new LinkedHashMap<>();
+    static {
+        RENDITIONS.put(HIGH_RES_HEIGHT, RenditionType.HIGH_RES.getPrefix());
+        RENDITIONS.put(LOW_RES_HEIGHT, RenditionType.LOW_RES.getPrefix());
+    }
+
+    @Autowired
+    private MinioClient minioClient;
+
+    private final ExecutorService uploadExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * Scales, encodes and uploads every rendition of {@code source} into the category bucket,
+     * turned upright according to its EXIF {@code orientation}.
+     *
+     * @return the uploaded renditions keyed by their target height
+     */
+    public Map<Integer, Rendition> render(UUID categoryId, BufferedImage source, int orientation, String fileName) throws IOException {
+        Map<Integer, CompletableFuture<Rendition>> uploads = new LinkedHashMap<>();
+        // Set once any rendition fails, so uploads that have not reached MinIO yet are skipped.
+        AtomicBoolean cancelled = new AtomicBoolean();
+        BufferedImage current = source;
+        // Orientation is applied after the first downscale, so only a rendition-sized image is rotated.
+        boolean oriented = false;
+
+        try {
+            for (Map.Entry<Integer, String> entry : RENDITIONS.entrySet()) {
+                if (uploads.values().stream().anyMatch(CompletableFuture::isCompletedExceptionally)) {
+                    break;
+                }
+                int maxHeight = entry.getKey();
+                String objectName = entry.getValue() + fileName;
+
+                boolean swapped = !oriented && Orientation.swapsDimensions(orientation);
+                int width = swapped ? current.getHeight() : current.getWidth();
+                int height = swapped ? current.getWidth() : current.getHeight();
+
+                // Never upscale; a source smaller than the rendition is reused as is.
+                if (height > maxHeight) {
+                    int newWidth = (int) Math.round((double) maxHeight / height * width);
+                    current = swapped
+                            ? Scalr.resize(current, Scalr.Method.QUALITY, Scalr.Mode.FIT_EXACT, maxHeight, newWidth)
+                            : Scalr.resize(current, Scalr.Method.QUALITY, Scalr.Mode.FIT_TO_HEIGHT, newWidth, maxHeight);
+                }
+                if (!oriented) {
+                    current = Orientation.apply(current, orientation);
+                    oriented = true;
+                }
+
+                BufferedImage scaled = current;
+                uploads.put(maxHeight, CompletableFuture.supplyAsync(() -> upload(categoryId, scaled, objectName, cancelled), uploadExecutor));
+            }
+
+            Map<Integer, Rendition> renditions = new LinkedHashMap<>();
+            for (Map.Entry<Integer, CompletableFuture<Rendition>> upload : uploads.entrySet()) {
+                renditions.put(upload.getKey(), upload.getValue().join());
+            }
+            return renditions;
+        } catch (CompletionException e) {
+            discard(categoryId, uploads.values(), cancelled);
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IOException("Failed to generate renditions for " + fileName, e.getCause());
+        } catch (RuntimeException | Error e) {
+            discard(categoryId, uploads.values(), cancelled);
+            throw e;
+        }
+    }
+
+    /**
+     * Stops the uploads that have not started and removes every rendition that was uploaded,
+     * so a failed render leaves nothing behind in the bucket.
+     */
+    private void discard(UUID categoryId, Collection<CompletableFuture<Rendition>> uploads, AtomicBoolean cancelled) {
+        cancelled.set(true);
+        for (CompletableFuture<Rendition> upload : uploads) {
+            Rendition rendition;
+            try {
+                // Uploads already streaming to MinIO are waited for, otherwise they would land after the cleanup.
+                rendition = upload.join();
+            } catch (CompletionException | CancellationException e) {
+                continue;
+            }
+            try {
+                minioClient.removeObject(RemoveObjectArgs.builder()
+                        .bucket(categoryId.toString())
+                        .object(rendition.objectName()).build());
+            } catch (IOException | MinioException | InvalidKeyException | NoSuchAlgorithmException e) {
+                logger.warn("Could not remove rendition {} of a failed render from category {}: {}", rendition.objectName(), categoryId, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * A BlurHash of the image for clients to show while the thumbnails load.
+     */
+    public String placeholder(BufferedImage source, int orientation) {
+        BufferedImage small = Orientation.apply(
+                Scalr.resize(source, Scalr.Method.SPEED, Scalr.Mode.AUTOMATIC, PLACEHOLDER_SIZE, PLACEHOLDER_SIZE), orientation);
+        boolean landscape = small.getWidth() >= small.getHeight();
+        return BlurHash.encode(small, landscape ? 4 : 3, landscape ? 3 : 4);
+    }
+
+    private Rendition upload(UUID categoryId, BufferedImage image, String objectName, AtomicBoolean cancelled) {
+        logger.debug("Uploading rendition: {} ({}x{}) to category: {}", objectName, image.getWidth(), image.getHeight(), categoryId);
+        if (cancelled.get()) {
+            throw new CancellationException("Render of " + objectName + " was abandoned");
+        }
+        try {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            if (!ImageIO.write(image, "jpg", outputStream)) {
+                throw new IOException("No JPEG writer for rendition " + objectName);
+            }
+            byte[] bytes = outputStream.toByteArray();
+            if (cancelled.get()) {
+                throw new CancellationException("Render of " + objectName + " was abandoned");
+            }
+
+            minioClient.putObject(PutObjectArgs.builder()
+                    .bucket(categoryId.toString())
+                    .object(objectName)
+                    .stream(new ByteArrayInputStream(bytes), bytes.length, -1)
+                    .contentType("image/jpeg")
+                    .build());
+
+            return new Rendition(objectName, image.getWidth(), image.getHeight(), bytes.length);
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        } catch (MinioException | InvalidKeyException | NoSuchAlgorithmException e) {
+            throw new CompletionException(new IOException("MinIO Error uploading " + objectName + ": " + e.getMessage(), e));
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        uploadExecutor.shutdown();
+    }
+}
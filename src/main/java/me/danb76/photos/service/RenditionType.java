@@ -0,0 +1,34 @@
+package me.danb76.photos.service;
+
+/**
+ * The kinds of object stored in a category bucket, identified by their object name prefix.
+ */
+public enum RenditionType {
+    LOW_RES("480_"),
+    HIGH_RES("1080_"),
+    ORIGINAL("original_"),
+    OTHER("");
+
+    private final String prefix;
+
+    RenditionType(String prefix) {
+        this.prefix = prefix;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public String objectName(String fileName) {
+        return prefix + fileName;
+    }
+
+    public static RenditionType fromObjectName(String objectName) {
+        for (RenditionType type : values()) {
+            if (type != OTHER && objectName.startsWith(type.prefix)) {
+                return type;
+            }
+        }
+        return OTHER;
+    }
+}
@@ -0,0 +1,400 @@
+package me.danb76.photos.service;
+
+import io.minio.GetObjectArgs;
+import io.minio.GetObjectResponse;
+import io.minio.MinioClient;
+import io.minio.RemoveObjectArgs;
+import io.minio.errors.MinioException;
+import jakarta.annotation.PreDestroy;
+import me.danb76.photos.database.repositories.PhotosRepository;
+import me.danb76.photos.database.tables.Photo;
+import me.danb76.photos.service.cache.DiskRenditionCache;
+import me.danb76.photos.service.cache.PresignedUrlCache;
+import me.danb76.photos.service.cache.RenditionCache;
+import me.danb76.photos.service.image.DecodedImage;
+import me.danb76.photos.service.image.ImageDecoder;
+import me.danb76.photos.service.image.Orientation;
+import me.danb76.photos.service.image.RawPreview;
+import org.apache.commons.io.FilenameUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Regenerates the renditions of photos in the background: of rotated photos, and of RAW
+ * photos once their original is developed. Work for one photo is serialised, and each run
+ * catches the renditions up with whatever rotation the photo has by then, so several quick
+ * rotations cost at most one or two regenerations.
+ */
+@Service
+public class RotationService {
+    private static final Logger logger = LoggerFactory.getLogger(RotationService.class);
+
+    @Autowired
+    private PhotosRepository repository;
+
+    @Autowired
+    private MinioClient minioClient;
+
+    @Autowired
+    private RenditionPipeline renditionPipeline;
+
+    @Autowired
+    private ImageDecoder imageDecoder;
+
+    @Autowired
+    private RawDeveloper rawDeveloper;
+
+    @Autowired
+    private RenditionCache renditionCache;
+
+    @Autowired
+    private DiskRenditionCache diskCache;
+
+    @Autowired
+    private PresignedUrlCache presignedUrls;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private JobLeaseService jobLeases;
+
+    @Value("${photos.raw.develop.lease-duration:600000}")
+    private long developLeaseMs;
+
+    @Value("${photos.rotation.sweep-batch-size:100}")
+    private int sweepBatchSize;
+
+    private final ExecutorService executor;
+    private final Map<UUID, CompletableFuture<Void>> pending = new ConcurrentHashMap<>();
+    // Photos with a develop queued or running on this node, until its renditions are applied.
+    // Each is also claimed in the database, and the claims are renewed while they are here.
+    private final Set<UUID> developing = ConcurrentHashMap.newKeySet();
+
+    public RotationService(@Value("${photos.rotation.threads:2}") int threads) {
+        this.executor = Executors.newFixedThreadPool(threads, Thread.ofPlatform().name("rotation-", 0).daemon(true).factory());
+    }
+
+    /**
+     * Queues a regeneration of the photo's renditions after any already queued for it.
+     */
+    public void schedule(UUID photoId) {
+        enqueue(photoId, () -> regenerate(photoId));
+    }
+
+    /**
+     * Queues a develop of the photo's RAW original on the converter pool; its renditions then
+     * replace the ones made from the embedded preview. The develop is claimed in the database
+     * first, so a photo another node is developing is left to it. Returns false if the develop
+     * queue is full; the photo stays marked develop-pending and {@link #sweepDevelops()} tries again.
+     */
+    public boolean scheduleDevelop(UUID photoId) {
+        if (!developing.add(photoId)) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        if (repository.claimDevelop(photoId, jobLeases.getNodeId(), now + developLeaseMs, now) == 0) {
+            // Claimed by another node, or no longer pending.
+            developing.remove(photoId);
+            return true;
+        }
+        if (!rawDeveloper.submit(() -> develop(photoId))) {
+            releaseDevelop(photoId);
+            return false;
+        }
+        return true;
+    }
+
+    // Renews well before expiry, so a long develop or a full queue never loses its claim.
+    @Scheduled(fixedRateString = "${photos.raw.develop.lease-renew-interval:60000}")
+    public void renewDevelops() {
+        if (developing.isEmpty()) {
+            return;
+        }
+        int renewed = repository.renewDevelops(List.copyOf(developing), jobLeases.getNodeId(),
+                System.currentTimeMillis() + developLeaseMs);
+        logger.debug("Renewed {} of {} develop claims.", renewed, developing.size());
+    }
+
+    /**
+     * Catches up photos whose renditions were never regenerated, because the node restarted
+     * with the work queued or a regeneration failed. Photos with work already queued here are
+     * left to it.
+     */
+    @Scheduled(fixedRateString = "${photos.rotation.sweep-interval:300000}", initialDelayString = "${photos.rotation.sweep-delay:60000}")
+    public void sweep() {
+        int scheduled = 0;
+        for (UUID photoId : repository.findIdsWithStaleRenditions(Limit.of(sweepBatchSize))) {
+            if (!pending.containsKey(photoId)) {
+                schedule(photoId);
+                scheduled++;
+            }
+        }
+        if (scheduled > 0) {
+            logger.info("Rotation sweep scheduled {} photos with stale renditions.", scheduled);
+        }
+    }
+
+    /**
+     * Resubmits RAW photos still waiting for a develop that no node holds: ones the queue turned
+     * away when they were ingested, and ones whose node died or restarted mid-way, once their
+     * claim has expired. Stops as soon as the queue is full.
+     */
+    @Scheduled(fixedRateString = "${photos.raw.develop.sweep-interval:300000}", initialDelayString = "${photos.rotation.sweep-delay:60000}")
+    public void sweepDevelops() {
+        if (!rawDeveloper.isEnabled()) {
+            return;
+        }
+        int scheduled = 0;
+        for (UUID photoId : repository.findIdsPendingDevelop(System.currentTimeMillis(), Limit.of(sweepBatchSize))) {
+            if (developing.contains(photoId)) {
+                continue;
+            }
+            if (!scheduleDevelop(photoId)) {
+                break;
+            }
+            scheduled++;
+        }
+        if (scheduled > 0) {
+            logger.info("Develop sweep scheduled {} RAW photos.", scheduled);
+        }
+    }
+
+    private void enqueue(UUID photoId, Runnable task) {
+        // A failed run must not stop the ones queued after it.
+        CompletableFuture<Void> next = pending.compute(photoId, (id, previous) ->
+                (previous == null ? CompletableFuture.<Void>completedFuture(null) : previous.exceptionally(e -> null))
+                        .thenRunAsync(task, executor));
+        next.whenComplete((result, e) -> pending.remove(photoId, next));
+    }
+
+    private void regenerate(UUID photoId) {
+        Photo photo = repository.findById(photoId).orElse(null);
+        if (photo == null) {
+            return;
+        }
+        int rotation = photo.getRotation();
+        int delta = Math.floorMod(rotation - photo.getRenditionRotation(), 4);
+        if (delta == 0) {
+            return;
+        }
+
+        String bucket = photo.getCategory().toString();
+        boolean quarterTurn = delta % 2 == 1;
+        // Width and height describe the photo as the current renditions show it.
+        int width = quarterTurn ? photo.getHeight() : photo.getWidth();
+        int height = quarterTurn ? photo.getWidth() : photo.getHeight();
+
+        try {
+            Map<Integer, Rendition> renditions;
+            String placeholder;
+            // The high-res rendition is enough unless turning it leaves it shorter than a fresh one would be.
+            int rotatedHeight = quarterTurn ? photo.getHighResWidth() : photo.getHighResHeight();
+            boolean fromRendition = rotatedHeight >= Math.min(RenditionPipeline.HIGH_RES_HEIGHT, height);
+            String source = fromRendition ? photo.getHighRes() : photo.getFullPhoto();
+
+            try (GetObjectResponse response = minioClient.getObject(GetObjectArgs.builder()
+                    .bucket(bucket)
+                    .object(source).build())) {
+                // A RAW original is rendered from its embedded preview, as at ingest.
+                InputStream imageStream = response;
+                if (!fromRendition && RawPreview.isRaw(source)) {
+                    byte[] preview = RawPreview.extract(response);
+                    if (preview == null) {
+                        logger.warn("No embedded preview in {} to rotate photo {}", source, photoId);
+                        return;
+                    }
+                    imageStream = new ByteArrayInputStream(preview);
+                }
+
+                try (DecodedImage decoded = imageDecoder.decode(imageStream, fromRendition ? 0 : RenditionPipeline.HIGH_RES_HEIGHT)) {
+                    if (decoded == null) {
+                        logger.warn("Could not decode {} to rotate photo {}", source, photoId);
+                        return;
+                    }
+
+                    BufferedImage image = fromRendition
+                            ? Orientation.rotate(decoded.getImage(), delta)
+                            : Orientation.rotate(Orientation.apply(decoded.getImage(), photo.getOrientation()), rotation);
+                    renditions = renditionPipeline.render(photo.getCategory(), image, 1, UUID.randomUUID() + ".jpg");
+                    placeholder = renditionPipeline.placeholder(image, 1);
+                }
+            }
+
+            replaceRenditions(photoId, bucket, renditions, placeholder, width, height, rotation);
+            logger.debug("Regenerated renditions of photo {} at rotation {}", photoId, rotation);
+        } catch (IOException | MinioException | InvalidKeyException | NoSuchAlgorithmException e) {
+            logger.error("Failed to regenerate renditions of photo {}: {}", photoId, e.getMessage(), e);
+        }
+    }
+
+    // Runs on the converter pool; only the rendition swap joins the photo's queue.
+    private void develop(UUID photoId) {
+        Photo photo = repository.findById(photoId).orElse(null);
+        if (photo == null || !photo.isDevelopPending()) {
+            developing.remove(photoId);
+            return;
+        }
+
+        Path rawFile = null;
+        Path developed = null;
+        boolean handedOff = false;
+        try {
+            // dcraw needs the whole file on local disk.
+            rawFile = Files.createTempFile("raw-", "." + FilenameUtils.getExtension(photo.getFullPhoto()));
+            try (GetObjectResponse response = minioClient.getObject(GetObjectArgs.builder()
+                    .bucket(photo.getCategory().toString())
+                    .object(photo.getFullPhoto()).build())) {
+                Files.copy(response, rawFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+            developed = rawDeveloper.develop(rawFile);
+
+            Path developedFile = developed;
+            enqueue(photoId, () -> applyDeveloped(photoId, developedFile));
+            developed = null;
+            handedOff = true;
+        } catch (IOException | MinioException | InvalidKeyException | NoSuchAlgorithmException e) {
+            logger.error("Failed to develop RAW original of photo {}: {}", photoId, e.getMessage(), e);
+            // A file the converter failed on would fail again; it keeps its preview renditions.
+            finishDevelop(photoId);
+        } catch (InterruptedException e) {
+            // Shutting down: the photo stays develop-pending, free for the next sweep on any node.
+            Thread.currentThread().interrupt();
+            releaseDevelop(photoId);
+        } finally {
+            deleteQuietly(rawFile);
+            deleteQuietly(developed);
+            if (!handedOff) {
+                developing.remove(photoId);
+            }
+        }
+    }
+
+    private void applyDeveloped(UUID photoId, Path developed) {
+        try {
+            Photo photo = repository.findById(photoId).orElse(null);
+            if (photo == null) {
+                return;
+            }
+
+            int rotation = photo.getRotation();
+            Map<Integer, Rendition> renditions;
+            String placeholder;
+            int width;
+            int height;
+            try (InputStream inputStream = Files.newInputStream(developed);
+                 DecodedImage decoded = imageDecoder.decode(inputStream, RenditionPipeline.HIGH_RES_HEIGHT)) {
+                if (decoded == null) {
+                    logger.warn("Could not decode developed RAW original of photo {}", photoId);
+                    return;
+                }
+
+                // dcraw turns the image upright itself, which leaves only the user's rotation.
+                BufferedImage image = Orientation.rotate(decoded.getImage(), rotation);
+                renditions = renditionPipeline.render(photo.getCategory(), image, 1, UUID.randomUUID() + ".jpg");
+                placeholder = renditionPipeline.placeholder(image, 1);
+                boolean quarterTurn = rotation % 2 == 1;
+                width = quarterTurn ? decoded.getSourceHeight() : decoded.getSourceWidth();
+                height = quarterTurn ? decoded.getSourceWidth() : decoded.getSourceHeight();
+            }
+
+            replaceRenditions(photoId, photo.getCategory().toString(), renditions, placeholder, width, height, rotation);
+            logger.debug("Replaced renditions of photo {} with ones from its developed RAW original", photoId);
+        } catch (IOException | MinioException | InvalidKeyException | NoSuchAlgorithmException e) {
+            logger.error("Failed to apply developed RAW original of photo {}: {}", photoId, e.getMessage(), e);
+        } finally {
+            deleteQuietly(developed);
+            finishDevelop(photoId);
+        }
+    }
+
+    private void releaseDevelop(UUID photoId) {
+        try {
+            repository.releaseDevelop(photoId, jobLeases.getNodeId());
+        } finally {
+            developing.remove(photoId);
+        }
+    }
+
+    private void finishDevelop(UUID photoId) {
+        try {
+            repository.clearDevelopPending(photoId);
+        } finally {
+            developing.remove(photoId);
+        }
+    }
+
+    private void replaceRenditions(UUID photoId, String bucket, Map<Integer, Rendition> renditions, String placeholder,
+                                   int width, int height, int rotation) throws IOException, MinioException, InvalidKeyException, NoSuchAlgorithmException {
+        Rendition lowRes = renditions.get(RenditionPipeline.LOW_RES_HEIGHT);
+        Rendition highRes = renditions.get(RenditionPipeline.HIGH_RES_HEIGHT);
+
+        // Lock the row so a concurrent rotation or delete cannot interleave with the update.
+        List<String> replaced = transactionTemplate.execute(status -> {
+            Photo current = repository.findLockedById(photoId).orElse(null);
+            if (current == null) {
+                return List.of(lowRes.objectName(), highRes.objectName());
+            }
+            List<String> previous = List.of(current.getLowRes(), current.getHighRes());
+            current.setLowRes(lowRes.objectName());
+            current.setLowResRendition(lowRes.width(), lowRes.height(), lowRes.bytes());
+            current.setHighRes(highRes.objectName());
+            current.setHighResRendition(highRes.width(), highRes.height(), highRes.bytes());
+            current.setDimensions(width, height);
+            current.setPlaceholder(placeholder);
+            current.setRenditionRotation(rotation);
+            repository.save(current);
+            return previous;
+        });
+
+        // Removed from storage first, so a cache fill racing the invalidation cannot read it back.
+        for (String objectName : replaced) {
+            minioClient.removeObject(RemoveObjectArgs.builder()
+                    .bucket(bucket)
+                    .object(objectName).build());
+            renditionCache.invalidate(bucket, objectName);
+            diskCache.invalidate(bucket, objectName);
+            presignedUrls.invalidate(bucket, objectName);
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.warn("Could not delete {}: {}", file, e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,284 @@
+package me.danb76.photos.service;
+
+import io.minio.ComposeObjectArgs;
+import io.minio.ComposeSource;
+import io.minio.ListObjectsArgs;
+import io.minio.MinioClient;
+import io.minio.RemoveObjectArgs;
+import io.minio.RemoveObjectsArgs;
+import io.minio.Result;
+import io.minio.errors.MinioException;
+import io.minio.messages.DeleteError;
+import io.minio.messages.DeleteObject;
+import io.minio.messages.Item;
+import me.danb76.photos.database.controller.UploadController;
+import me.danb76.photos.database.repositories.UploadSessionsRepository;
+import me.danb76.photos.database.tables.Job;
+import me.danb76.photos.database.tables.UploadSession;
+import org.apache.commons.io.FilenameUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Resumable uploads. A client opens a session, PUTs numbered chunks in any order (and in
+ * parallel), can ask which chunks have arrived after an interruption, and finally completes
+ * the session. Each chunk is stored as its own object under {@code parts/<session>/} in the
+ * uploads bucket and completion assembles them server-side with a compose, which MinIO runs
+ * as a multipart upload copy, so no chunk passes through this app twice.
+ */
+@Service
+public class UploadSessionService {
+    private static final Logger logger = LoggerFactory.getLogger(UploadSessionService.class);
+
+    // S3 multipart limits: every part but the last must be at least 5 MiB.
+    public static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+    public static final int MAX_PARTS = 10000;
+
+    private static final String PARTS_PREFIX = "parts/";
+    private static final int CLEANUP_BATCH_SIZE = 100;
+
+    @Autowired
+    private UploadSessionsRepository repository;
+
+    @Autowired
+    private MinioClient minioClient;
+
+    @Autowired
+    private IngestService ingestService;
+
+    @Value("${uploads.sessions.ttl:24h}")
+    private Duration ttl;
+
+    public record Part(int number, long size, String etag) {
+    }
+
+    /**
+     * Outcome of completing a session: the stored file, and the job ingesting it if the session
+     * was opened for a category.
+     */
+    public record Completed(String bucket, String fileName, long size, Job job) {
+    }
+
+    public UploadSession create(String fileName, UUID category) {
+        UploadSession session = new UploadSession();
+        session.setFileName(fileName);
+        session.setCategory(category);
+        session.setExpiresAt(System.currentTimeMillis() + ttl.toMillis());
+        return repository.save(session);
+    }
+
+    /**
+     * @return the session, unless it does not exist or has expired
+     */
+    public Optional<UploadSession> find(UUID sessionId) {
+        return repository.findById(sessionId)
+                .filter(session -> session.getExpiresAt() > System.currentTimeMillis());
+    }
+
+    /**
+     * Stores chunk {@code number} of the session, replacing any earlier attempt at the same
+     * chunk, and extends the session's expiry.
+     */
+    public IngestService.StoredObject putPart(UploadSession session, int number, InputStream inputStream, long size) throws IOException, MinioException, InvalidKeyException, NoSuchAlgorithmException {
+        if (number < 1 || number > MAX_PARTS) {
+            throw new IllegalArgumentException("Part number must be between 1 and " + MAX_PARTS);
+        }
+        if (session.isFailed()) {
+            throw new IllegalStateException("Upload session failed: " + session.getFailureReason());
+        }
+        if (session.isCompleting() || repository.touch(session.getId(), System.currentTimeMillis() + ttl.toMillis()) == 0) {
+            throw new IllegalStateException("Upload session is being completed");
+        }
+        String partName = partName(session.getId(), number);
+        IngestService.StoredObject stored = ingestService.store(UploadController.UPLOADS_BUCKET, partName,
+                "application/octet-stream", inputStream, size);
+
+        // Completion may have started while the chunk was streaming, after it listed the parts.
+        // A part stored then would never be assembled or cleaned up, so take it back out.
+        Optional<UploadSession> current = repository.findById(session.getId());
+        if (current.isEmpty() || current.get().isCompleting()) {
+            removePart(partName);
+            throw new IllegalStateException("Upload session was completed while the part was uploading");
+        }
+        return stored;
+    }
+
+    public List<Part> listParts(UploadSession session) throws IOException, MinioException, InvalidKeyException, NoSuchAlgorithmException {
+        String prefix = partsPrefix(session.getId());
+        List<Part> parts = new ArrayList<>();
+        for (Result<Item> result : minioClient.listObjects(ListObjectsArgs.builder()
+                .bucket(UploadController.UPLOADS_BUCKET)
+                .prefix(prefix)
+                .recursive(true).build())) {
+            Item item = result.get();
+            try {
+                parts.add(new Part(Integer.parseInt(item.objectName().substring(prefix.length())), item.size(), item.etag()));
+            } catch (NumberFormatException e) {
+                logger.warn("Ignoring unexpected object {} in upload session {}", item.objectName(), session.getId());
+            }
+        }
+        parts.sort(Comparator.comparingInt(Part::number));
+        return parts;
+    }
+
+    /**
+     * Assembles the received chunks, which must be numbered 1 to n without gaps, into the
+     * session's file and removes the chunks.
+     *
+     * @throws IllegalStateException if the session is already being completed
+     * @throws IllegalArgumentException if chunks are missing or too small
+     */
+    public Completed complete(UploadSession session) throws IOException, MinioException, InvalidKeyException, NoSuchAlgorithmException {
+        if (session.isFailed()) {
+            throw new IllegalStateException("Upload session failed: " + session.getFailureReason());
+        }
+        if (repository.markCompleting(session.getId()) == 0) {
+            throw new IllegalStateException("Upload session is already being completed");
+        }
+
+        boolean assembled = false;
+        try {
+            List<Part> parts = listParts(session);
+            if (parts.isEmpty()) {
+                throw new IllegalArgumentException("No parts have been uploaded");
+            }
+            long size = 0;
+            List<ComposeSource> sources = new ArrayList<>();
+            for (int i = 0; i < parts.size(); i++) {
+                Part part = parts.get(i);
+                if (part.number() != i + 1) {
+                    throw new IllegalArgumentException("Part " + (i + 1) + " is missing");
+                }
+                if (i < parts.size() - 1 && part.size() < MIN_PART_SIZE) {
+                    throw new IllegalArgumentException("Part " + part.number() + " is smaller than " + MIN_PART_SIZE + " bytes");
+                }
+                size += part.size();
+                sources.add(ComposeSource.builder()
+                        .bucket(UploadController.UPLOADS_BUCKET)
+                        .object(partName(session.getId(), part.number())).build());
+            }
+
+            UUID category = session.getCategory();
+            String bucket = category != null ? category.toString() : UploadController.UPLOADS_BUCKET;
+            String objectName = category != null ? RenditionType.ORIGINAL.objectName(session.getFileName()) : session.getFileName();
+            minioClient.composeObject(ComposeObjectArgs.builder()
+                    .bucket(bucket)
+                    .object(objectName)
+                    .headers(Map.of("Content-Type", IngestService.contentType(FilenameUtils.getExtension(session.getFileName()))))
+                    .sources(sources).build());
+            assembled = true;
+
+            Job job = null;
+            if (category != null) {
+                try {
+                    job = ingestService.ingestStored(category, session.getFileName());
+                } catch (RuntimeException e) {
+                    // The parts were assembled but nothing will ingest the file. Record why, so the
+                    // session reports the failure instead of staying "completing" until it expires.
+                    logger.error("Could not ingest assembled upload session {}", session.getId(), e);
+                    repository.markFailed(session.getId(), "Could not create the ingest job: " + e.getMessage());
+                    throw e;
+                }
+            }
+
+            try {
+                removeParts(session.getId());
+                repository.delete(session);
+            } catch (IOException | MinioException | InvalidKeyException | NoSuchAlgorithmException | RuntimeException e) {
+                // The file is stored and ingesting; leftover parts are removed when the session expires.
+                logger.warn("Could not clean up completed upload session {}: {}", session.getId(), e.getMessage());
+            }
+            return new Completed(bucket, session.getFileName(), size, job);
+        } finally {
+            if (!assembled) {
+                // Let the client fix the parts and try again.
+                repository.clearCompleting(session.getId());
+            }
+        }
+    }
+
+    public void abort(UploadSession session) throws IOException, MinioException, InvalidKeyException, NoSuchAlgorithmException {
+        removeParts(session.getId());
+        repository.delete(session);
+    }
+
+    // Abandoned sessions would otherwise keep their chunks in the uploads bucket forever.
+    @Scheduled(fixedRateString = "${uploads.sessions.cleanup-interval:3600000}")
+    public void cleanup() {
+        List<UploadSession> expired;
+        int removed = 0;
+        do {
+            expired = repository.findByExpiresAtLessThan(System.currentTimeMillis(), Limit.of(CLEANUP_BATCH_SIZE));
+            for (UploadSession session : expired) {
+                try {
+                    abort(session);
+                    removed++;
+                } catch (IOException | MinioException | InvalidKeyException | NoSuchAlgorithmException e) {
+                    logger.warn("Could not clean up upload session {}: {}", session.getId(), e.getMessage());
+                    return;
+                }
+            }
+        } while (expired.size() == CLEANUP_BATCH_SIZE);
+
+        if (removed > 0) {
+            logger.info("Removed {} expired upload sessions.", removed);
+        }
+    }
+
+    private void removeParts(UUID sessionId) throws IOException, MinioException, InvalidKeyException, NoSuchAlgorithmException {
+        String prefix = partsPrefix(sessionId);
+        List<DeleteObject> objects = new ArrayList<>();
+        for (Result<Item> result : minioClient.listObjects(ListObjectsArgs.builder()
+                .bucket(UploadController.UPLOADS_BUCKET)
+                .prefix(prefix)
+                .recursive(true).build())) {
+            objects.add(new DeleteObject(result.get().objectName()));
+        }
+        if (objects.isEmpty()) {
+            return;
+        }
+
+        // Results are lazy; the deletes only happen while iterating them.
+        for (Result<DeleteError> result : minioClient.removeObjects(RemoveObjectsArgs.builder()
+                .bucket(UploadController.UPLOADS_BUCKET)
+                .objects(objects).build())) {
+            DeleteError error = result.get();
+            logger.warn("Could not remove {}: {}", error.objectName(), error.message());
+        }
+    }
+
+    private void removePart(String partName) {
+        try {
+            minioClient.removeObject(RemoveObjectArgs.builder()
+                    .bucket(UploadController.UPLOADS_BUCKET)
+                    .object(partName).build());
+        } catch (IOException | MinioException | InvalidKeyException | NoSuchAlgorithmException e) {
+            logger.warn("Could not remove late part {}: {}", partName, e.getMessage());
+        }
+    }
+
+    private static String partsPrefix(UUID sessionId) {
+        return PARTS_PREFIX + sessionId + "/";
+    }
+
+    private static String partName(UUID sessionId, int number) {
+        return partsPrefix(sessionId) + String.format("%05d", number);
+    }
+}
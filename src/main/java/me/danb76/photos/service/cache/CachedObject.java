@@ -0,0 +1,47 @@
+package me.danb76.photos.service.cache;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An object held in memory. The payload lives in a read-only direct buffer, so cached bytes
+ * stay off the Java heap and out of the way of the garbage collector.
+ */
+public final class CachedObject {
+    private final ObjectMetadata metadata;
+    private final ByteBuffer data;
+    private volatile long verifiedAt;
+
+    public CachedObject(ObjectMetadata metadata, ByteBuffer data) {
+        this.metadata = metadata;
+        this.data = data.asReadOnlyBuffer();
+        this.verifiedAt = System.currentTimeMillis();
+    }
+
+    public ObjectMetadata getMetadata() {
+        return metadata;
+    }
+
+    /**
+     * When the object was last known to still be in use: when it was read from storage, or
+     * when a caller last checked it with {@link #markVerified()}.
+     */
+    public long getVerifiedAt() {
+        return verifiedAt;
+    }
+
+    public void markVerified() {
+        verifiedAt = System.currentTimeMillis();
+    }
+
+    public long getSize() {
+        return data.capacity();
+    }
+
+    /**
+     * Returns an independent view of {@code length} bytes starting at {@code offset}, safe to
+     * consume from any thread.
+     */
+    public ByteBuffer slice(long offset, long length) {
+        return data.slice((int) offset, (int) length);
+    }
+}
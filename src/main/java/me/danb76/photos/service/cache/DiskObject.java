@@ -0,0 +1,68 @@
+package me.danb76.photos.service.cache;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * An open handle on an object in the {@link DiskRenditionCache}. The file stays readable
+ * through this handle even if the cache evicts it in the meantime, so close it when done.
+ */
+public final class DiskObject implements AutoCloseable {
+    private final ObjectMetadata metadata;
+    private final FileChannel channel;
+    private final long payloadOffset;
+    private final long verifiedAt;
+
+    DiskObject(ObjectMetadata metadata, FileChannel channel, long payloadOffset, long verifiedAt) {
+        this.metadata = metadata;
+        this.channel = channel;
+        this.payloadOffset = payloadOffset;
+        this.verifiedAt = verifiedAt;
+    }
+
+    public ObjectMetadata getMetadata() {
+        return metadata;
+    }
+
+    /**
+     * When the entry was last known to still be in use, or 0 if it was found on disk at
+     * startup and has not been checked since.
+     */
+    public long getVerifiedAt() {
+        return verifiedAt;
+    }
+
+    /**
+     * Copies {@code length} payload bytes starting at {@code offset} to the stream with
+     * {@link FileChannel#transferTo}. A servlet stream is not a file or socket channel, so
+     * there is no zero-copy path: the JDK reads the file in chunks into a small temporary
+     * buffer and the channel adapter copies each chunk to the stream. What this saves is
+     * reading the file into a buffer of its own size.
+     */
+    public void transferTo(long offset, long length, OutputStream outputStream) throws IOException {
+        WritableByteChannel target = Channels.newChannel(outputStream);
+        long position = payloadOffset + offset;
+        long remaining = length;
+        while (remaining > 0) {
+            long transferred = channel.transferTo(position, remaining, target);
+            if (transferred <= 0) {
+                throw new IOException("Cached file ended " + remaining + " bytes early");
+            }
+            position += transferred;
+            remaining -= transferred;
+        }
+    }
+
+    public ByteBuffer map() throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, payloadOffset, metadata.size());
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,418 @@
+package me.danb76.photos.service.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import me.danb76.photos.service.RenditionType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Second cache tier on local disk, between the in-memory {@link RenditionCache} and MinIO.
+ * Each object is one file holding a small header (key and metadata) followed by the payload.
+ * Files are filled under a temporary name and renamed into place, so a crash never leaves a
+ * partial entry behind, and the index is rebuilt from the directory on startup so the cache
+ * comes back warm after a redeploy. Eviction is LRU by total size, with file modification
+ * times recording recency across restarts.
+ *
+ * <p>The cache belongs to one node, and {@link #invalidate} only clears this node's copy.
+ * Entries remember when they were last known to be in use: a fill counts as a check, while
+ * entries found on disk at startup have never been checked, since the objects may have been
+ * deleted while the node was down or through another node. Callers re-check entries older
+ * than their interval against the database before serving them (see
+ * {@link DiskObject#getVerifiedAt()}) and call {@link #markVerified} once they have.
+ */
+@Component
+public class DiskRenditionCache {
+    private static final Logger logger = LoggerFactory.getLogger(DiskRenditionCache.class);
+    private static final int MAGIC = 0x50484331;
+    private static final String SUFFIX = ".bin";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private record Entry(Path path, ObjectMetadata metadata, long payloadOffset, long verifiedAt) {
+        long fileSize() {
+            return payloadOffset + metadata.size();
+        }
+    }
+
+    private final boolean enabled;
+    private final Path directory;
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final Set<RenditionType> cachedTypes;
+
+    private final LinkedHashMap<ObjectKey, Entry> entries = new LinkedHashMap<>(1024, 0.75f, true);
+    private final Invalidations invalidations = new Invalidations(4096);
+    private long bytesInUse;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+
+    public DiskRenditionCache(@Value("${photos.cache.disk.enabled:true}") boolean enabled,
+                              @Value("${photos.cache.disk.directory:cache/renditions}") Path directory,
+                              @Value("${photos.cache.disk.max-bytes:2147483648}") long maxBytes,
+                              @Value("${photos.cache.disk.max-entry-bytes:33554432}") long maxEntryBytes,
+                              @Value("${photos.cache.disk.types:LOW_RES,HIGH_RES}") Set<RenditionType> cachedTypes,
+                              MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = Math.min(maxEntryBytes, maxBytes);
+        this.cachedTypes = cachedTypes;
+
+        this.hits = Counter.builder("photos.cache.disk.requests").tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder("photos.cache.disk.requests").tag("result", "miss").register(meterRegistry);
+        this.evictions = Counter.builder("photos.cache.disk.evictions").register(meterRegistry);
+        Gauge.builder("photos.cache.disk.bytes", this, DiskRenditionCache::getBytesInUse)
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void load() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        Files.createDirectories(directory);
+
+        // Insert oldest first so the least recently used files end up at the eviction end.
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                if (name.endsWith(TEMP_SUFFIX)) {
+                    // Left over from a fill interrupted by a crash.
+                    Files.deleteIfExists(path);
+                } else if (name.endsWith(SUFFIX)) {
+                    files.add(path);
+                }
+            }
+        }
+        files.sort(Comparator.comparing(DiskRenditionCache::lastModified));
+
+        List<Path> evicted;
+        synchronized (this) {
+            for (Path path : files) {
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                    Header header = readHeader(channel);
+                    Entry entry = new Entry(path, header.metadata(), header.payloadOffset(), 0);
+                    if (channel.size() != entry.fileSize()) {
+                        throw new IOException("unexpected file size");
+                    }
+                    entries.put(header.key(), entry);
+                    bytesInUse += entry.fileSize();
+                } catch (IOException e) {
+                    logger.warn("Discarding unreadable cache file {}: {}", path, e.getMessage());
+                    Files.deleteIfExists(path);
+                }
+            }
+            evicted = evictToFit(false);
+        }
+        delete(evicted);
+        logger.info("Disk rendition cache at {} loaded {} entries ({} bytes).", directory.toAbsolutePath(), entries.size(), bytesInUse);
+    }
+
+    public boolean accepts(String objectName, long size) {
+        return enabled && size <= maxEntryBytes && cachedTypes.contains(RenditionType.fromObjectName(objectName));
+    }
+
+    /**
+     * Opens the cached copy of an object, or returns null if it is not on disk.
+     */
+    public DiskObject open(String bucket, String objectName) {
+        if (!enabled || !cachedTypes.contains(RenditionType.fromObjectName(objectName))) {
+            return null;
+        }
+
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(new ObjectKey(bucket, objectName));
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(entry.path(), StandardOpenOption.READ);
+        } catch (IOException e) {
+            // Evicted or removed underneath us.
+            misses.increment();
+            invalidate(bucket, objectName);
+            return null;
+        }
+
+        try {
+            // Persist recency so the LRU order survives a restart.
+            Files.setLastModifiedTime(entry.path(), FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            logger.debug("Could not touch cache file {}: {}", entry.path(), e.getMessage());
+        }
+        hits.increment();
+        return new DiskObject(entry.metadata(), channel, entry.payloadOffset(), entry.verifiedAt());
+    }
+
+    /**
+     * Records that the cached copy of an object was just checked to still be in use.
+     */
+    public void markVerified(String bucket, String objectName) {
+        ObjectKey key = new ObjectKey(bucket, objectName);
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                entries.put(key, new Entry(entry.path(), entry.metadata(), entry.payloadOffset(), System.currentTimeMillis()));
+            }
+        }
+    }
+
+    /**
+     * The current invalidation generation. Take it before reading an object from storage and
+     * pass it to {@code fill} or {@code store}, so a copy read before an invalidation is not
+     * cached after it.
+     */
+    public long generation() {
+        return invalidations.generation();
+    }
+
+    /**
+     * Copies an object from the stream onto disk and opens it, or returns null if the object
+     * was invalidated since {@code generation}.
+     */
+    public DiskObject fill(String bucket, String objectName, ObjectMetadata metadata, InputStream inputStream,
+                           long generation) throws IOException {
+        Path path = write(bucket, objectName, metadata, generation, outputStream -> {
+            long copied = inputStream.transferTo(outputStream);
+            if (copied != metadata.size()) {
+                throw new IOException("Expected " + metadata.size() + " bytes of " + objectName + " but read " + copied);
+            }
+        });
+        return path == null ? null : open(bucket, objectName, path);
+    }
+
+    /**
+     * Writes an object that is already in memory to disk. Failures are logged, not thrown,
+     * as the caller already has the bytes it needs.
+     */
+    public void store(String bucket, String objectName, ObjectMetadata metadata, ByteBuffer data, long generation) {
+        if (!accepts(objectName, metadata.size())) {
+            return;
+        }
+        try {
+            write(bucket, objectName, metadata, generation, outputStream -> {
+                WritableByteChannel channel = Channels.newChannel(outputStream);
+                ByteBuffer source = data.duplicate();
+                while (source.hasRemaining()) {
+                    channel.write(source);
+                }
+            });
+        } catch (IOException e) {
+            logger.warn("Failed to write {} to the disk cache: {}", objectName, e.getMessage());
+        }
+    }
+
+    /**
+     * Drops this node's copy of an object, along with any fill of it still in progress.
+     */
+    public void invalidate(String bucket, String objectName) {
+        ObjectKey key = new ObjectKey(bucket, objectName);
+        Entry removed;
+        synchronized (this) {
+            invalidations.invalidate(key);
+            removed = entries.remove(key);
+            if (removed != null) {
+                bytesInUse -= removed.fileSize();
+            }
+        }
+        if (removed != null) {
+            delete(List.of(removed.path()));
+        }
+    }
+
+    public synchronized long getBytesInUse() {
+        return bytesInUse;
+    }
+
+    private interface PayloadWriter {
+        void write(OutputStream outputStream) throws IOException;
+    }
+
+    // Returns where the object was written, or null if it was invalidated while being read.
+    private Path write(String bucket, String objectName, ObjectMetadata metadata, long generation, PayloadWriter payload) throws IOException {
+        ObjectKey key = new ObjectKey(bucket, objectName);
+        Path path = directory.resolve(fileName(key));
+        Path temp = Files.createTempFile(directory, "fill-", TEMP_SUFFIX);
+        try {
+            byte[] header = encodeHeader(key, metadata);
+            try (OutputStream outputStream = Files.newOutputStream(temp)) {
+                outputStream.write(header);
+                payload.write(outputStream);
+            }
+
+            Entry entry = new Entry(path, metadata, header.length, System.currentTimeMillis());
+            List<Path> evicted;
+            synchronized (this) {
+                // Checked and moved into place under the lock, so an invalidation either sees
+                // the new file or is seen here.
+                if (invalidations.isStale(key, generation)) {
+                    return null;
+                }
+                Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                Entry previous = entries.put(key, entry);
+                if (previous != null) {
+                    bytesInUse -= previous.fileSize();
+                }
+                bytesInUse += entry.fileSize();
+                evicted = evictToFit(true);
+            }
+            delete(evicted);
+            return path;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private DiskObject open(String bucket, String objectName, Path path) throws IOException {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(new ObjectKey(bucket, objectName));
+        }
+        if (entry == null || !entry.path().equals(path)) {
+            throw new IOException("Cached copy of " + objectName + " was evicted immediately");
+        }
+        return new DiskObject(entry.metadata(), FileChannel.open(path, StandardOpenOption.READ), entry.payloadOffset(), entry.verifiedAt());
+    }
+
+    // Drops least recently used entries until everything fits. With protectNewest the entry
+    // just added, which sits at the recently used end, is never a victim. Caller holds the lock.
+    private List<Path> evictToFit(boolean protectNewest) {
+        List<Path> evicted = new ArrayList<>();
+        Iterator<Map.Entry<ObjectKey, Entry>> iterator = entries.entrySet().iterator();
+        while (bytesInUse > maxBytes && entries.size() > (protectNewest ? 1 : 0) && iterator.hasNext()) {
+            Entry victim = iterator.next().getValue();
+            iterator.remove();
+            bytesInUse -= victim.fileSize();
+            evicted.add(victim.path());
+            evictions.increment();
+        }
+        return evicted;
+    }
+
+    private void delete(List<Path> paths) {
+        for (Path path : paths) {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                logger.warn("Failed to delete cache file {}: {}", path, e.getMessage());
+            }
+        }
+    }
+
+    private record Header(ObjectKey key, ObjectMetadata metadata, long payloadOffset) {
+    }
+
+    // Layout: int header length, then magic, bucket, object, etag, last modified, content type and size.
+    private static byte[] encodeHeader(ObjectKey key, ObjectMetadata metadata) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(body)) {
+            out.writeInt(MAGIC);
+            out.writeUTF(key.bucket());
+            out.writeUTF(key.object());
+            out.writeUTF(metadata.etag());
+            out.writeLong(metadata.lastModified());
+            out.writeUTF(metadata.contentType() == null ? "" : metadata.contentType());
+            out.writeLong(metadata.size());
+        }
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(header)) {
+            out.writeInt(body.size());
+            body.writeTo(out);
+        }
+        return header.toByteArray();
+    }
+
+    private static Header readHeader(FileChannel channel) throws IOException {
+        ByteBuffer lengthBuffer = ByteBuffer.allocate(Integer.BYTES);
+        readFully(channel, lengthBuffer, 0);
+        int length = lengthBuffer.flip().getInt();
+        if (length <= 0 || length > 64 * 1024) {
+            throw new IOException("bad header length " + length);
+        }
+
+        ByteBuffer body = ByteBuffer.allocate(length);
+        readFully(channel, body, Integer.BYTES);
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(body.array()))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("bad magic");
+            }
+            ObjectKey key = new ObjectKey(in.readUTF(), in.readUTF());
+            String etag = in.readUTF();
+            long lastModified = in.readLong();
+            String contentType = in.readUTF();
+            long size = in.readLong();
+            ObjectMetadata metadata = new ObjectMetadata(etag, lastModified, contentType.isEmpty() ? null : contentType, size);
+            return new Header(key, metadata, Integer.BYTES + length);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("truncated header");
+            }
+        }
+    }
+
+    private static String fileName(ObjectKey key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest((key.bucket() + "/" + key.object()).getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash) + SUFFIX;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static FileTime lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package me.danb76.photos.service.cache;
+
+/**
+ * Count-min sketch of 4-bit counters used to estimate how often a key has been requested.
+ * Counters are halved periodically so that popularity decays over time. Not thread safe,
+ * callers synchronise.
+ */
+final class FrequencySketch {
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+    };
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private final long[] table;
+    private final int counterMask;
+    private final int sampleSize;
+    private int additions;
+
+    FrequencySketch(int expectedEntries) {
+        int size = Integer.highestOneBit(Math.max(16, expectedEntries - 1) << 1);
+        this.table = new long[size];
+        // Sixteen 4-bit counters per long.
+        this.counterMask = size * 16 - 1;
+        this.sampleSize = 10 * size;
+    }
+
+    int frequency(Object key) {
+        int hash = key.hashCode();
+        int frequency = 15;
+        for (long seed : SEEDS) {
+            frequency = Math.min(frequency, counter(indexOf(hash, seed)));
+        }
+        return frequency;
+    }
+
+    void increment(Object key) {
+        int hash = key.hashCode();
+        boolean added = false;
+        for (long seed : SEEDS) {
+            int index = indexOf(hash, seed);
+            if (counter(index) < 15) {
+                table[index >>> 4] += 1L << shift(index);
+                added = true;
+            }
+        }
+
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions /= 2;
+    }
+
+    private int counter(int index) {
+        return (int) ((table[index >>> 4] >>> shift(index)) & 15L);
+    }
+
+    private static int shift(int index) {
+        return (index & 15) << 2;
+    }
+
+    private int indexOf(int hash, long seed) {
+        long h = (hash + seed) * seed;
+        h += h >>> 32;
+        return (int) h & counterMask;
+    }
+}
@@ -0,0 +1,50 @@
+package me.danb76.photos.service.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers recent invalidations so a cache fill that read its object before one happened
+ * can be recognised and dropped. Each invalidation takes the next generation; a fill notes
+ * the generation before it reads from storage and is stale if its key was invalidated since.
+ * Only the most recent keys are kept, and once one is forgotten every fill that started
+ * before it counts as stale, which costs a cache entry but never serves a removed object.
+ */
+final class Invalidations {
+    private final int capacity;
+    private long generation;
+    private long forgottenUpTo;
+    private final LinkedHashMap<ObjectKey, Long> recent;
+
+    Invalidations(int capacity) {
+        this.capacity = capacity;
+        this.recent = new LinkedHashMap<>(Math.min(capacity, 1024), 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ObjectKey, Long> eldest) {
+                if (size() > Invalidations.this.capacity) {
+                    forgottenUpTo = Math.max(forgottenUpTo, eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    synchronized long generation() {
+        return generation;
+    }
+
+    synchronized void invalidate(ObjectKey key) {
+        // Re-inserting moves the key to the young end, so it is forgotten last.
+        recent.remove(key);
+        recent.put(key, ++generation);
+    }
+
+    synchronized boolean isStale(ObjectKey key, long startedAt) {
+        if (startedAt < forgottenUpTo) {
+            return true;
+        }
+        Long invalidatedAt = recent.get(key);
+        return invalidatedAt != null && invalidatedAt > startedAt;
+    }
+}
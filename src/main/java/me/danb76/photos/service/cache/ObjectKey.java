@@ -0,0 +1,4 @@
+package me.danb76.photos.service.cache;
+
+public record ObjectKey(String bucket, String object) {
+}
@@ -0,0 +1,7 @@
+package me.danb76.photos.service.cache;
+
+/**
+ * The parts of a stored object's metadata needed to serve it: validators, type and length.
+ */
+public record ObjectMetadata(String etag, long lastModified, String contentType, long size) {
+}
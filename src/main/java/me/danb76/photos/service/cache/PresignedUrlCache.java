@@ -0,0 +1,120 @@
+package me.danb76.photos.service.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.minio.GetPresignedObjectUrlArgs;
+import io.minio.MinioClient;
+import io.minio.http.Method;
+import me.danb76.photos.service.RenditionType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Presigned MinIO GET URLs for rendition types that are served by redirect rather than
+ * proxied through the app. Signed URLs are reused until shortly before they expire, so a
+ * popular original is signed once per refresh window instead of once per request.
+ * <p>
+ * The URLs are signed for {@code photos.serving.public-url}, the address clients reach MinIO
+ * at, which is usually not the internal {@code spring.minio.url}. Without a public URL nothing
+ * is redirected and every type is proxied.
+ */
+@Component
+public class PresignedUrlCache {
+    private static final Logger logger = LoggerFactory.getLogger(PresignedUrlCache.class);
+
+    private final MinioClient minioClient;
+    private final Set<RenditionType> redirectTypes;
+    private final Duration expiry;
+    private final Duration refreshMargin;
+    private final int maxEntries;
+
+    private final ConcurrentHashMap<ObjectKey, PresignedUrl> urls = new ConcurrentHashMap<>();
+
+    private final Counter signed;
+    private final Counter reused;
+
+    private record PresignedUrl(String url, long expiresAt) {
+    }
+
+    public PresignedUrlCache(@Value("${photos.serving.public-url:}") String publicUrl,
+                             @Value("${photos.serving.public-region:us-east-1}") String publicRegion,
+                             @Value("${spring.minio.access-key}") String accessKey,
+                             @Value("${spring.minio.secret-key}") String secretKey,
+                             @Value("${photos.serving.redirect-types:}") Set<RenditionType> redirectTypes,
+                             @Value("${photos.serving.presign-expiry:15m}") Duration expiry,
+                             @Value("${photos.serving.presign-refresh-margin:2m}") Duration refreshMargin,
+                             @Value("${photos.serving.presign-max-entries:10000}") int maxEntries,
+                             MeterRegistry meterRegistry) {
+        if (publicUrl.isBlank()) {
+            if (!redirectTypes.isEmpty()) {
+                logger.warn("photos.serving.public-url is not set, proxying {} instead of redirecting.", redirectTypes);
+            }
+            this.minioClient = null;
+            this.redirectTypes = Set.of();
+        } else {
+            // Signing needs the region up front, otherwise the client asks the public endpoint for it.
+            this.minioClient = MinioClient.builder()
+                    .endpoint(publicUrl)
+                    .region(publicRegion)
+                    .credentials(accessKey, secretKey)
+                    .build();
+            this.redirectTypes = redirectTypes;
+        }
+        this.expiry = expiry;
+        // Never hand out a URL with less than a quarter of its lifetime left.
+        this.refreshMargin = refreshMargin.compareTo(expiry.dividedBy(4)) < 0 ? expiry.dividedBy(4) : refreshMargin;
+        this.maxEntries = maxEntries;
+
+        this.signed = Counter.builder("photos.serving.presigned").tag("result", "signed").register(meterRegistry);
+        this.reused = Counter.builder("photos.serving.presigned").tag("result", "reused").register(meterRegistry);
+
+        logger.info("Serving {} by redirect to presigned URLs valid for {}", this.redirectTypes, expiry);
+    }
+
+    /**
+     * Whether objects of this type should be answered with a redirect to storage.
+     */
+    public boolean redirects(String objectName) {
+        return redirectTypes.contains(RenditionType.fromObjectName(objectName));
+    }
+
+    /**
+     * Returns a presigned GET URL for the object that stays valid for at least the refresh
+     * margin, signing a new one if the cached URL is missing or close to expiry.
+     */
+    public String get(String bucket, String objectName) throws Exception {
+        ObjectKey key = new ObjectKey(bucket, objectName);
+        long now = System.currentTimeMillis();
+        PresignedUrl cached = urls.get(key);
+        if (cached != null && cached.expiresAt() - refreshMargin.toMillis() > now) {
+            reused.increment();
+            return cached.url();
+        }
+
+        String url = minioClient.getPresignedObjectUrl(GetPresignedObjectUrlArgs.builder()
+                .method(Method.GET)
+                .bucket(bucket)
+                .object(objectName)
+                .expiry((int) expiry.toSeconds()).build());
+        signed.increment();
+
+        if (urls.size() >= maxEntries) {
+            urls.values().removeIf(entry -> entry.expiresAt() - refreshMargin.toMillis() <= now);
+            if (urls.size() >= maxEntries) {
+                urls.clear();
+            }
+        }
+        urls.put(key, new PresignedUrl(url, now + expiry.toMillis()));
+        return url;
+    }
+
+    public void invalidate(String bucket, String objectName) {
+        urls.remove(new ObjectKey(bucket, objectName));
+    }
+}
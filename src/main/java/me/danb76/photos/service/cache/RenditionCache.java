@@ -0,0 +1,237 @@
+package me.danb76.photos.service.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import me.danb76.photos.service.RenditionType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-process cache of small, hot renditions (gallery thumbnails by default), bounded by the
+ * total size of the cached payloads. Entries are kept in LRU order and a frequency sketch
+ * decides admission: a new entry only displaces the least recently used ones if it has been
+ * requested more often than they have, so a burst of one-off requests cannot flush the
+ * popular thumbnails.
+ *
+ * <p>Like the {@link DiskRenditionCache}, this cache belongs to one node: {@link #invalidate}
+ * only clears this node's copy. Callers that serve entries to clients re-check them against
+ * the database now and then (see {@link CachedObject#getVerifiedAt()}) so that a delete made
+ * through another node stops being served within that interval.
+ */
+@Component
+public class RenditionCache {
+    private static final Logger logger = LoggerFactory.getLogger(RenditionCache.class);
+
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final Set<RenditionType> cachedTypes;
+
+    private final LinkedHashMap<ObjectKey, CachedObject> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private final FrequencySketch sketch;
+    private final Invalidations invalidations = new Invalidations(4096);
+    private long bytesInUse;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+    private final Counter rejections;
+
+    public RenditionCache(@Value("${photos.cache.memory.max-bytes:67108864}") long maxBytes,
+                          @Value("${photos.cache.memory.max-entry-bytes:1048576}") long maxEntryBytes,
+                          @Value("${photos.cache.memory.types:LOW_RES}") Set<RenditionType> cachedTypes,
+                          MeterRegistry meterRegistry) {
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = Math.min(maxEntryBytes, maxBytes);
+        this.cachedTypes = cachedTypes;
+        // Size the sketch for the number of typical thumbnails that fit in the cache.
+        this.sketch = new FrequencySketch((int) Math.min(1 << 20, Math.max(1024, maxBytes / (64 * 1024))));
+
+        this.hits = Counter.builder("photos.cache.memory.requests").tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder("photos.cache.memory.requests").tag("result", "miss").register(meterRegistry);
+        this.evictions = Counter.builder("photos.cache.memory.evictions").register(meterRegistry);
+        this.rejections = Counter.builder("photos.cache.memory.rejections")
+                .description("Entries not admitted because they were less popular than the entries they would evict")
+                .register(meterRegistry);
+        Gauge.builder("photos.cache.memory.bytes", this, RenditionCache::getBytesInUse)
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("photos.cache.memory.entries", this, RenditionCache::getEntryCount)
+                .register(meterRegistry);
+        Gauge.builder("photos.cache.memory.hit.ratio", this, RenditionCache::getHitRatio)
+                .register(meterRegistry);
+
+        logger.info("Rendition cache holds up to {} bytes of {}", maxBytes, cachedTypes);
+    }
+
+    /**
+     * Whether an object of this type and size would be considered for caching.
+     */
+    public boolean accepts(String objectName, long size) {
+        return size <= maxEntryBytes && cachedTypes.contains(RenditionType.fromObjectName(objectName));
+    }
+
+    public CachedObject get(String bucket, String objectName) {
+        if (!cachedTypes.contains(RenditionType.fromObjectName(objectName))) {
+            return null;
+        }
+
+        ObjectKey key = new ObjectKey(bucket, objectName);
+        CachedObject cached;
+        synchronized (this) {
+            sketch.increment(key);
+            cached = entries.get(key);
+        }
+
+        if (cached != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return cached;
+    }
+
+    /**
+     * The current invalidation generation. Take it before reading an object from storage and
+     * pass it to {@code load}, so a copy read before an invalidation is not cached after it.
+     */
+    public long generation() {
+        return invalidations.generation();
+    }
+
+    /**
+     * Reads {@code size} bytes from the stream into a direct buffer and offers them to the cache.
+     * The returned object is usable whether or not the cache admitted it.
+     */
+    public CachedObject load(String bucket, String objectName, ObjectMetadata metadata, InputStream inputStream,
+                             long generation) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) metadata.size());
+        ReadableByteChannel channel = Channels.newChannel(inputStream);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Object " + objectName + " ended before " + metadata.size() + " bytes");
+            }
+        }
+        buffer.flip();
+
+        CachedObject cached = new CachedObject(metadata, buffer);
+        put(new ObjectKey(bucket, objectName), cached, generation);
+        return cached;
+    }
+
+    /**
+     * Copies an object held elsewhere off-heap (e.g. a mapped file from the disk tier) into
+     * the cache.
+     */
+    public CachedObject load(String bucket, String objectName, ObjectMetadata metadata, ByteBuffer data, long generation) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(data.remaining());
+        buffer.put(data.duplicate());
+        buffer.flip();
+
+        CachedObject cached = new CachedObject(metadata, buffer);
+        put(new ObjectKey(bucket, objectName), cached, generation);
+        return cached;
+    }
+
+    /**
+     * Whether an entry of this size would be admitted right now, given how often it has been
+     * requested compared with the entries it would evict. Lets callers skip copying an object
+     * into a buffer only for the cache to turn it away.
+     */
+    public synchronized boolean wouldAdmit(String bucket, String objectName, long size) {
+        if (size > maxEntryBytes) {
+            return false;
+        }
+        ObjectKey key = new ObjectKey(bucket, objectName);
+        if (victimsFor(key, size) == null) {
+            rejections.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Drops this node's copy of an object, along with any load of it still in progress.
+     */
+    public synchronized void invalidate(String bucket, String objectName) {
+        ObjectKey key = new ObjectKey(bucket, objectName);
+        invalidations.invalidate(key);
+        CachedObject removed = entries.remove(key);
+        if (removed != null) {
+            bytesInUse -= removed.getSize();
+        }
+    }
+
+    private synchronized void put(ObjectKey key, CachedObject cached, long generation) {
+        long size = cached.getSize();
+        if (size > maxEntryBytes || invalidations.isStale(key, generation)) {
+            return;
+        }
+
+        CachedObject previous = entries.remove(key);
+        if (previous != null) {
+            bytesInUse -= previous.getSize();
+        }
+
+        List<ObjectKey> victims = victimsFor(key, size);
+        if (victims == null) {
+            rejections.increment();
+            return;
+        }
+
+        for (ObjectKey victim : victims) {
+            bytesInUse -= entries.remove(victim).getSize();
+            evictions.increment();
+        }
+        entries.put(key, cached);
+        bytesInUse += size;
+    }
+
+    /**
+     * Picks victims from the LRU end to make room for the candidate, or returns null if any of
+     * them is more popular than the candidate.
+     */
+    private List<ObjectKey> victimsFor(ObjectKey key, long size) {
+        long needed = bytesInUse + size - maxBytes;
+        List<ObjectKey> victims = new ArrayList<>();
+        int candidateFrequency = sketch.frequency(key);
+        Iterator<Map.Entry<ObjectKey, CachedObject>> iterator = entries.entrySet().iterator();
+        while (needed > 0 && iterator.hasNext()) {
+            Map.Entry<ObjectKey, CachedObject> victim = iterator.next();
+            if (!victim.getKey().equals(key) && candidateFrequency <= sketch.frequency(victim.getKey())) {
+                return null;
+            }
+            victims.add(victim.getKey());
+            needed -= victim.getValue().getSize();
+        }
+        return victims;
+    }
+
+    public synchronized long getBytesInUse() {
+        return bytesInUse;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public double getHitRatio() {
+        double total = hits.count() + misses.count();
+        return total == 0 ? 0 : hits.count() / total;
+    }
+}
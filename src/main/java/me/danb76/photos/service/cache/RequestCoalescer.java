@@ -0,0 +1,108 @@
+package me.danb76.photos.service.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Single-flight execution of origin fetches. The first request for a key runs the fetch,
+ * concurrent requests for the same key wait for it and share its result or its exception.
+ * The fetch itself runs on a virtual thread under a deadline, so a hung read is interrupted
+ * and fails every request waiting on it instead of holding them until their own timeouts.
+ */
+@Component
+public class RequestCoalescer {
+    private final ConcurrentHashMap<ObjectKey, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private final Duration timeout;
+    private final Duration originTimeout;
+    private final ExecutorService loaders = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final Counter originFetches;
+    private final Counter coalescedFetches;
+    private final Counter timeouts;
+
+    public RequestCoalescer(@Value("${photos.fetch.coalesce-timeout:10s}") Duration timeout,
+                            @Value("${photos.fetch.origin-timeout:60s}") Duration originTimeout,
+                            MeterRegistry meterRegistry) {
+        this.timeout = timeout;
+        this.originTimeout = originTimeout;
+        this.originFetches = Counter.builder("photos.fetch.requests").tag("result", "origin").register(meterRegistry);
+        this.coalescedFetches = Counter.builder("photos.fetch.requests").tag("result", "coalesced").register(meterRegistry);
+        this.timeouts = Counter.builder("photos.fetch.coalesce.timeouts").register(meterRegistry);
+    }
+
+    /**
+     * Runs {@code loader} unless a load for the same key is already in flight, in which case
+     * this waits up to the configured timeout for that load instead.
+     *
+     * @throws TimeoutException if the in-flight load did not finish in time
+     */
+    @SuppressWarnings("unchecked")
+    public <V> V execute(ObjectKey key, Callable<V> loader) throws Exception {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            coalescedFetches.increment();
+            return (V) await(existing);
+        }
+
+        originFetches.increment();
+        Future<?> task = loaders.submit(() -> {
+            try {
+                future.complete(loader.call());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            } finally {
+                inFlight.remove(key, future);
+            }
+        });
+        try {
+            return (V) unwrap(future, originTimeout);
+        } catch (TimeoutException e) {
+            // Fail the waiters now and let the next request start a fresh fetch.
+            inFlight.remove(key, future);
+            future.completeExceptionally(e);
+            task.cancel(true);
+            throw e;
+        }
+    }
+
+    private Object await(CompletableFuture<Object> future) throws Exception {
+        return unwrap(future, timeout);
+    }
+
+    private Object unwrap(CompletableFuture<Object> future, Duration timeout) throws Exception {
+        try {
+            return future.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            timeouts.increment();
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw e;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        loaders.shutdownNow();
+    }
+}
@@ -0,0 +1,100 @@
+package me.danb76.photos.service.image;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Heap budget shared by everything that decodes images. Callers reserve the estimated size
+ * of the raster before decoding and hold the reservation until they are done with the image,
+ * so concurrent decodes of large images queue up instead of exhausting the heap.
+ */
+@Component
+public class DecodeBudget {
+    private static final Logger logger = LoggerFactory.getLogger(DecodeBudget.class);
+
+    // Permits are counted in KiB so budgets beyond 2 GB still fit in an int.
+    private static final int UNIT = 1024;
+
+    private final int totalUnits;
+    private final Semaphore semaphore;
+
+    public DecodeBudget(@Value("${images.decode.budget-bytes:536870912}") long budgetBytes, MeterRegistry meterRegistry) {
+        this.totalUnits = (int) Math.max(1, budgetBytes / UNIT);
+        this.semaphore = new Semaphore(totalUnits, true);
+
+        Gauge.builder("photos.decode.budget.in.use", this, DecodeBudget::getBytesInUse)
+                .description("Bytes of the decode budget reserved by in-progress decodes")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("photos.decode.budget.total", this, budget -> (double) budget.totalUnits * UNIT)
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Waits until {@code bytes} of the budget are free. Requests larger than the whole budget
+     * are clamped to it, so such an image is decoded on its own rather than never.
+     */
+    public Permit acquire(long bytes) throws InterruptedIOException {
+        int units = unitsFor(bytes);
+        try {
+            semaphore.acquire(units);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for decode budget");
+        }
+        return new Permit(units);
+    }
+
+    /**
+     * Like {@link #acquire(long)} but gives up after {@code timeout}, for request threads that
+     * should answer 503 rather than queue indefinitely.
+     */
+    public Permit acquire(long bytes, Duration timeout) throws InterruptedIOException, DecodeBudgetExceededException {
+        int units = unitsFor(bytes);
+        try {
+            if (!semaphore.tryAcquire(units, timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                logger.warn("Decode budget exhausted, could not reserve {} bytes within {}ms.", bytes, timeout.toMillis());
+                throw new DecodeBudgetExceededException("Decode budget exhausted, try again later.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for decode budget");
+        }
+        return new Permit(units);
+    }
+
+    public long getBytesInUse() {
+        return (long) (totalUnits - semaphore.availablePermits()) * UNIT;
+    }
+
+    private int unitsFor(long bytes) {
+        return (int) Math.min(totalUnits, Math.max(1, (bytes + UNIT - 1) / UNIT));
+    }
+
+    public final class Permit implements AutoCloseable {
+        private final int units;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(int units) {
+            this.units = units;
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                semaphore.release(units);
+            }
+        }
+    }
+}
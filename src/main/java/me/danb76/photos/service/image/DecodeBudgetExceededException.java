@@ -0,0 +1,7 @@
+package me.danb76.photos.service.image;
+
+public class DecodeBudgetExceededException extends Exception {
+    public DecodeBudgetExceededException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,44 @@
+package me.danb76.photos.service.image;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * A decoded image together with its share of the {@link DecodeBudget}. Closing it hands the
+ * reservation back, so keep it open for as long as the image (or copies of it) are in use.
+ */
+public final class DecodedImage implements AutoCloseable {
+    private final BufferedImage image;
+    private final DecodeBudget.Permit permit;
+    private final int sourceWidth;
+    private final int sourceHeight;
+
+    DecodedImage(BufferedImage image, DecodeBudget.Permit permit, int sourceWidth, int sourceHeight) {
+        this.image = image;
+        this.permit = permit;
+        this.sourceWidth = sourceWidth;
+        this.sourceHeight = sourceHeight;
+    }
+
+    public BufferedImage getImage() {
+        return image;
+    }
+
+    /**
+     * Width of the encoded image before any subsampling.
+     */
+    public int getSourceWidth() {
+        return sourceWidth;
+    }
+
+    /**
+     * Height of the encoded image before any subsampling.
+     */
+    public int getSourceHeight() {
+        return sourceHeight;
+    }
+
+    @Override
+    public void close() {
+        permit.close();
+    }
+}
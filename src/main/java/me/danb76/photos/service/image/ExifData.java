@@ -0,0 +1,22 @@
+package me.danb76.photos.service.image;
+
+/**
+ * The EXIF fields we keep for a photo. Any field may be null if the file does not record it;
+ * {@code orientation} is 1 (upright) when absent.
+ *
+ * @param capturedAt   DateTimeOriginal in epoch milliseconds, read as UTC unless the file
+ *                     records its offset
+ * @param exposureTime exposure time as recorded, e.g. "1/250"
+ */
+public record ExifData(Long capturedAt, int orientation, String make, String model, String lens,
+                       String exposureTime, Double aperture, Integer iso, Double focalLength) {
+
+    public static final ExifData EMPTY = new ExifData(null, 1, null, null, null, null, null, null, null);
+
+    /**
+     * Whether the stored pixels are turned a quarter turn from how the photo should be shown.
+     */
+    public boolean swapsDimensions() {
+        return Orientation.swapsDimensions(orientation);
+    }
+}
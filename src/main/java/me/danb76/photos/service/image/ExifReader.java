@@ -0,0 +1,221 @@
+package me.danb76.photos.service.image;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Reads EXIF metadata from the APP1 segment at the start of a JPEG stream, or from the
+ * directories of a TIFF-based RAW file such as CR2. Only the marker segments before the first
+ * scan are read, and never more than {@link #MAX_HEADER_BYTES}, so the pixels are not decoded
+ * and a caller can mark and reset a buffered stream around it.
+ */
+public final class ExifReader {
+    /**
+     * Upper bound on the bytes read from the stream.
+     */
+    public static final int MAX_HEADER_BYTES = 256 * 1024;
+
+    private static final byte[] EXIF_HEADER = {'E', 'x', 'i', 'f', 0, 0};
+    private static final DateTimeFormatter EXIF_DATE = DateTimeFormatter.ofPattern("yyyy:MM:dd HH:mm:ss");
+
+    private static final int TAG_MAKE = 0x010F;
+    private static final int TAG_MODEL = 0x0110;
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TAG_DATE_TIME = 0x0132;
+    private static final int TAG_EXIF_IFD = 0x8769;
+    private static final int TAG_EXPOSURE_TIME = 0x829A;
+    private static final int TAG_F_NUMBER = 0x829D;
+    private static final int TAG_ISO = 0x8827;
+    private static final int TAG_DATE_TIME_ORIGINAL = 0x9003;
+    private static final int TAG_OFFSET_TIME_ORIGINAL = 0x9011;
+    private static final int TAG_FOCAL_LENGTH = 0x920A;
+    private static final int TAG_LENS_MODEL = 0xA434;
+
+    private ExifReader() {
+    }
+
+    /**
+     * @return the EXIF data, or {@link ExifData#EMPTY} if the stream is not a JPEG or carries
+     * no readable EXIF segment
+     */
+    public static ExifData read(InputStream inputStream) throws IOException {
+        DataInputStream input = new DataInputStream(inputStream);
+        int start;
+        try {
+            start = input.readUnsignedShort();
+        } catch (EOFException e) {
+            return ExifData.EMPTY;
+        }
+
+        ByteBuffer tiff;
+        if (start == 0x4949 || start == 0x4D4D) {
+            // A TIFF-based RAW file: the whole file is the TIFF structure the EXIF segment would hold.
+            byte[] header = new byte[MAX_HEADER_BYTES];
+            header[0] = (byte) (start >> 8);
+            header[1] = (byte) start;
+            int length = 2 + input.readNBytes(header, 2, header.length - 2);
+            tiff = ByteBuffer.wrap(header, 0, length);
+        } else if (start == 0xFFD8) {
+            byte[] segment = findExifSegment(input);
+            if (segment == null) {
+                return ExifData.EMPTY;
+            }
+            tiff = ByteBuffer.wrap(segment, EXIF_HEADER.length, segment.length - EXIF_HEADER.length);
+        } else {
+            return ExifData.EMPTY;
+        }
+
+        try {
+            return parse(new TiffReader(tiff));
+        } catch (IOException e) {
+            // A damaged EXIF block should not fail the photo, just leave it without metadata.
+            return ExifData.EMPTY;
+        }
+    }
+
+    private static byte[] findExifSegment(DataInputStream input) throws IOException {
+        try {
+            // Every read is checked against the limit first, so a caller's mark stays valid.
+            long consumed = 2;
+            while (consumed < MAX_HEADER_BYTES) {
+                int marker = input.readUnsignedByte();
+                consumed++;
+                if (marker != 0xFF) {
+                    return null;
+                }
+                // Markers may be padded with any number of 0xFF fill bytes.
+                do {
+                    if (consumed >= MAX_HEADER_BYTES) {
+                        return null;
+                    }
+                    marker = input.readUnsignedByte();
+                    consumed++;
+                } while (marker == 0xFF);
+
+                if (marker == 0xDA || marker == 0xD9) {
+                    // Start of scan or end of image: no EXIF before the pixels.
+                    return null;
+                }
+                if ((marker >= 0xD0 && marker <= 0xD7) || marker == 0x01) {
+                    continue;
+                }
+
+                if (consumed + 2 > MAX_HEADER_BYTES) {
+                    return null;
+                }
+                int length = input.readUnsignedShort() - 2;
+                consumed += 2;
+                if (length < 0 || consumed + length > MAX_HEADER_BYTES) {
+                    return null;
+                }
+                consumed += length;
+
+                if (marker == 0xE1 && length > EXIF_HEADER.length) {
+                    byte[] segment = new byte[length];
+                    input.readFully(segment);
+                    if (Arrays.equals(segment, 0, EXIF_HEADER.length, EXIF_HEADER, 0, EXIF_HEADER.length)) {
+                        return segment;
+                    }
+                    // An XMP packet, which also uses APP1; keep looking.
+                } else {
+                    input.skipNBytes(length);
+                }
+            }
+            return null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private static ExifData parse(TiffReader tiff) throws IOException {
+        Map<Integer, TiffReader.Entry> ifd0 = tiff.readDirectory(tiff.firstDirectoryOffset());
+        Map<Integer, TiffReader.Entry> exif = Map.of();
+        TiffReader.Entry exifPointer = ifd0.get(TAG_EXIF_IFD);
+        if (exifPointer != null) {
+            exif = tiff.readDirectory((int) tiff.getInteger(exifPointer, 0));
+        }
+
+        int orientation = (int) integer(tiff, ifd0, TAG_ORIENTATION, 1);
+        if (orientation < 1 || orientation > 8) {
+            orientation = 1;
+        }
+
+        String dateTime = string(tiff, exif, TAG_DATE_TIME_ORIGINAL);
+        if (dateTime == null) {
+            dateTime = string(tiff, ifd0, TAG_DATE_TIME);
+        }
+        Long capturedAt = parseDate(dateTime, string(tiff, exif, TAG_OFFSET_TIME_ORIGINAL));
+
+        long iso = integer(tiff, exif, TAG_ISO, -1);
+        return new ExifData(capturedAt, orientation,
+                string(tiff, ifd0, TAG_MAKE),
+                string(tiff, ifd0, TAG_MODEL),
+                string(tiff, exif, TAG_LENS_MODEL),
+                exposureTime(tiff, exif.get(TAG_EXPOSURE_TIME)),
+                decimal(tiff, exif.get(TAG_F_NUMBER)),
+                iso >= 0 ? (int) iso : null,
+                decimal(tiff, exif.get(TAG_FOCAL_LENGTH)));
+    }
+
+    private static String string(TiffReader tiff, Map<Integer, TiffReader.Entry> directory, int tag) {
+        TiffReader.Entry entry = directory.get(tag);
+        return entry != null ? tiff.getString(entry) : null;
+    }
+
+    private static long integer(TiffReader tiff, Map<Integer, TiffReader.Entry> directory, int tag, long fallback) {
+        TiffReader.Entry entry = directory.get(tag);
+        long value = entry != null ? tiff.getInteger(entry, 0) : -1;
+        return value >= 0 ? value : fallback;
+    }
+
+    private static Double decimal(TiffReader tiff, TiffReader.Entry entry) {
+        long[] rational = entry != null ? tiff.getRational(entry) : null;
+        if (rational == null || rational[1] == 0) {
+            return null;
+        }
+        return (double) rational[0] / rational[1];
+    }
+
+    private static String exposureTime(TiffReader tiff, TiffReader.Entry entry) {
+        long[] rational = entry != null ? tiff.getRational(entry) : null;
+        if (rational == null || rational[0] <= 0 || rational[1] <= 0) {
+            return null;
+        }
+        if (rational[0] >= rational[1]) {
+            double seconds = (double) rational[0] / rational[1];
+            return seconds == Math.rint(seconds) ? String.valueOf((long) seconds) : String.valueOf(seconds);
+        }
+        // Show fractions of a second as 1/n, the way cameras do.
+        return "1/" + Math.round((double) rational[1] / rational[0]);
+    }
+
+    private static Long parseDate(String dateTime, String offset) {
+        if (dateTime == null) {
+            return null;
+        }
+        try {
+            LocalDateTime local = LocalDateTime.parse(dateTime, EXIF_DATE);
+            ZoneOffset zone = ZoneOffset.UTC;
+            if (offset != null) {
+                try {
+                    zone = ZoneOffset.of(offset);
+                } catch (RuntimeException ignored) {
+                    // Keep UTC.
+                }
+            }
+            return local.toInstant(zone).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            // Cameras with an unset clock write "0000:00:00 00:00:00".
+            return null;
+        }
+    }
+}
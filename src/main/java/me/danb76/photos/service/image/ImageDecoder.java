@@ -0,0 +1,138 @@
+package me.danb76.photos.service.image;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.SampleModel;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Iterator;
+
+/**
+ * Decodes images without materialising the full-resolution raster when a smaller one will do.
+ * The dimensions are read from the header first and the reader then subsamples the source
+ * while decoding, so heap use depends on the requested size rather than on the input size.
+ * Every decode reserves its estimated raster size from the shared {@link DecodeBudget}.
+ */
+@Component
+public class ImageDecoder {
+    private static final Logger logger = LoggerFactory.getLogger(ImageDecoder.class);
+
+    // Decode to roughly twice the largest rendition so downscaling still has detail to work with.
+    private static final int OVERSAMPLE = 2;
+
+    @Autowired
+    private DecodeBudget decodeBudget;
+
+    @Value("${images.decode.max-pixels:16000000}")
+    private long maxPixels;
+
+    /**
+     * Decodes the first image in the stream, subsampled so that its height is close to
+     * {@code 2 * targetHeight} and its pixel count stays under the configured limit.
+     * A {@code targetHeight} of 0 decodes at full resolution. Waits for decode budget
+     * as long as it takes, which suits background workers.
+     *
+     * @return the decoded image, or null if the stream is not a readable image
+     */
+    public DecodedImage decode(InputStream inputStream, int targetHeight) throws IOException {
+        try {
+            return decode(inputStream, targetHeight, null);
+        } catch (DecodeBudgetExceededException e) {
+            throw new IllegalStateException("Unbounded wait cannot exceed the decode budget", e);
+        }
+    }
+
+    /**
+     * Like {@link #decode(InputStream, int)} but fails with {@link DecodeBudgetExceededException}
+     * if the budget cannot be reserved within {@code timeout}.
+     */
+    public DecodedImage decode(InputStream inputStream, int targetHeight, Duration timeout) throws IOException, DecodeBudgetExceededException {
+        try (ImageInputStream imageStream = ImageIO.createImageInputStream(inputStream)) {
+            if (imageStream == null) {
+                return null;
+            }
+
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(imageStream);
+            if (!readers.hasNext()) {
+                return null;
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(imageStream, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+
+                ImageReadParam param = reader.getDefaultReadParam();
+                int subsampling = targetHeight > 0 ? subsamplingFor(width, height, targetHeight) : 1;
+                if (subsampling > 1) {
+                    param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                }
+
+                ImageTypeSpecifier type = destinationType(reader);
+                if (type != null) {
+                    param.setDestinationType(type);
+                }
+                long rasterBytes = estimateRasterBytes(type, width, height, subsampling);
+                DecodeBudget.Permit permit = timeout == null
+                        ? decodeBudget.acquire(rasterBytes)
+                        : decodeBudget.acquire(rasterBytes, timeout);
+                try {
+                    logger.debug("Decoding {}x{} image with subsampling {} (~{} bytes)", width, height, subsampling, rasterBytes);
+                    BufferedImage image = reader.read(0, param);
+                    if (image == null) {
+                        permit.close();
+                        return null;
+                    }
+                    return new DecodedImage(image, permit, width, height);
+                } catch (IOException | RuntimeException e) {
+                    permit.close();
+                    throw e;
+                }
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // The type read() decodes into when none is set; pinned on the param so the estimate is of
+    // the raster actually allocated, not of the file's raw layout.
+    private static ImageTypeSpecifier destinationType(ImageReader reader) throws IOException {
+        Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+        return types != null && types.hasNext() ? types.next() : null;
+    }
+
+    static long estimateRasterBytes(ImageTypeSpecifier type, int width, int height, int subsampling) {
+        long decodedWidth = (width + subsampling - 1) / subsampling;
+        long decodedHeight = (height + subsampling - 1) / subsampling;
+        return decodedWidth * decodedHeight * bytesPerPixel(type);
+    }
+
+    // A packed RGB pixel is one 4-byte int whatever its band count, and 16-bit samples take two
+    // bytes each, so count storage rather than bands. Unknown types assume a packed 32-bit pixel.
+    static int bytesPerPixel(ImageTypeSpecifier type) {
+        if (type == null) {
+            return 4;
+        }
+        SampleModel sampleModel = type.getSampleModel(1, 1);
+        return Math.max(1, sampleModel.getNumDataElements() * DataBuffer.getDataTypeSize(sampleModel.getTransferType()) / 8);
+    }
+
+    int subsamplingFor(int width, int height, int targetHeight) {
+        int byHeight = Math.max(1, height / (targetHeight * OVERSAMPLE));
+        int byPixels = (int) Math.ceil(Math.sqrt((double) width * height / maxPixels));
+        return Math.max(byHeight, byPixels);
+    }
+}
@@ -0,0 +1,76 @@
+package me.danb76.photos.service.image;
+
+import org.imgscalr.Scalr;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Applies an EXIF orientation to decoded pixels. ImageIO ignores the tag, so without this a
+ * portrait photo taken with the camera on its side renders on its side.
+ */
+public final class Orientation {
+    // EXIF orientations indexed by clockwise quarter turns, without and with a horizontal flip.
+    private static final int[] UPRIGHT = {1, 6, 3, 8};
+    private static final int[] FLIPPED = {2, 5, 4, 7};
+    private Orientation() {
+    }
+
+    /**
+     * Returns the image as it should be displayed for the given EXIF orientation (1-8).
+     */
+    public static BufferedImage apply(BufferedImage image, int orientation) {
+        return switch (orientation) {
+            case 2 -> Scalr.rotate(image, Scalr.Rotation.FLIP_HORZ);
+            case 3 -> Scalr.rotate(image, Scalr.Rotation.CW_180);
+            case 4 -> Scalr.rotate(image, Scalr.Rotation.FLIP_VERT);
+            case 5 -> Scalr.rotate(Scalr.rotate(image, Scalr.Rotation.CW_90), Scalr.Rotation.FLIP_HORZ);
+            case 6 -> Scalr.rotate(image, Scalr.Rotation.CW_90);
+            case 7 -> Scalr.rotate(Scalr.rotate(image, Scalr.Rotation.CW_270), Scalr.Rotation.FLIP_HORZ);
+            case 8 -> Scalr.rotate(image, Scalr.Rotation.CW_270);
+            default -> image;
+        };
+    }
+
+    /**
+     * Turns the image {@code quarterTurns} quarter turns clockwise.
+     */
+    public static BufferedImage rotate(BufferedImage image, int quarterTurns) {
+        return switch (Math.floorMod(quarterTurns, 4)) {
+            case 1 -> Scalr.rotate(image, Scalr.Rotation.CW_90);
+            case 2 -> Scalr.rotate(image, Scalr.Rotation.CW_180);
+            case 3 -> Scalr.rotate(image, Scalr.Rotation.CW_270);
+            default -> image;
+        };
+    }
+
+    /**
+     * The EXIF orientation that shows a photo stored with {@code orientation} turned a further
+     * {@code quarterTurns} quarter turns clockwise.
+     */
+    public static int compose(int orientation, int quarterTurns) {
+        // Each orientation is a clockwise rotation by r quarter turns, optionally followed by a
+        // horizontal flip. Turning a flipped image clockwise is the same as turning it back first.
+        int index = indexOf(orientation, UPRIGHT);
+        if (index >= 0) {
+            return UPRIGHT[Math.floorMod(index + quarterTurns, 4)];
+        }
+        index = indexOf(orientation, FLIPPED);
+        if (index >= 0) {
+            return FLIPPED[Math.floorMod(index - quarterTurns, 4)];
+        }
+        return UPRIGHT[Math.floorMod(quarterTurns, 4)];
+    }
+
+    private static int indexOf(int orientation, int[] orientations) {
+        for (int i = 0; i < orientations.length; i++) {
+            if (orientations[i] == orientation) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public static boolean swapsDimensions(int orientation) {
+        return orientation >= 5 && orientation <= 8;
+    }
+}
@@ -0,0 +1,118 @@
+package me.danb76.photos.service.image;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Changes the EXIF orientation of a JPEG without touching its compressed image data, so a
+ * photo can be rotated losslessly on the way out. Only the header segments are rewritten;
+ * everything after them is passed through unchanged by the caller.
+ */
+public final class OrientationRewriter {
+    private static final byte[] EXIF_HEADER = {'E', 'x', 'i', 'f', 0, 0};
+    private static final int TAG_ORIENTATION = 0x0112;
+
+    /**
+     * The rewritten header segments, to be written in place of the first {@code consumed}
+     * bytes of the original stream.
+     */
+    public record Header(byte[] bytes, long consumed) {
+    }
+
+    private OrientationRewriter() {
+    }
+
+    /**
+     * Reads the header segments from the stream, leaving it positioned just after them, and
+     * returns them with the orientation set. If the file has no EXIF segment one is added.
+     *
+     * @return null if the stream is not a JPEG or its EXIF segment has no orientation entry to
+     * patch; the stream is then in an unspecified position
+     */
+    public static Header rewrite(InputStream inputStream, int orientation) throws IOException {
+        DataInputStream input = new DataInputStream(inputStream);
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        try {
+            if (input.readUnsignedShort() != 0xFFD8) {
+                return null;
+            }
+            header.write(0xFF);
+            header.write(0xD8);
+
+            while (header.size() < ExifReader.MAX_HEADER_BYTES) {
+                int marker = input.readUnsignedShort();
+                if ((marker & 0xFF00) != 0xFF00) {
+                    return null;
+                }
+
+                if (marker < 0xFFE0 || marker > 0xFFEF) {
+                    // First segment that is not APPn: no EXIF so far, add ours just before it.
+                    long consumed = header.size() + 2;
+                    header.write(exifSegment(orientation));
+                    header.write(marker >> 8);
+                    header.write(marker & 0xFF);
+                    return new Header(header.toByteArray(), consumed);
+                }
+
+                int length = input.readUnsignedShort();
+                byte[] segment = new byte[Math.max(0, length - 2)];
+                input.readFully(segment);
+                header.write(marker >> 8);
+                header.write(marker & 0xFF);
+                header.write(length >> 8);
+                header.write(length & 0xFF);
+
+                if (marker == 0xFFE1 && segment.length > EXIF_HEADER.length
+                        && Arrays.equals(segment, 0, EXIF_HEADER.length, EXIF_HEADER, 0, EXIF_HEADER.length)) {
+                    if (!patch(segment, orientation)) {
+                        return null;
+                    }
+                    header.write(segment);
+                    return new Header(header.toByteArray(), header.size());
+                }
+                header.write(segment);
+            }
+            return null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private static boolean patch(byte[] segment, int orientation) {
+        try {
+            ByteBuffer tiffData = ByteBuffer.wrap(segment, EXIF_HEADER.length, segment.length - EXIF_HEADER.length);
+            TiffReader tiff = new TiffReader(tiffData);
+            Map<Integer, TiffReader.Entry> ifd0 = tiff.readDirectory(tiff.firstDirectoryOffset());
+            TiffReader.Entry entry = ifd0.get(TAG_ORIENTATION);
+            if (entry == null || entry.type() != TiffReader.TYPE_SHORT) {
+                return false;
+            }
+            ByteBuffer.wrap(segment).order(tiff.order())
+                    .putShort(EXIF_HEADER.length + entry.valueOffset(), (short) orientation);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // A minimal APP1 segment holding a single IFD0 entry: the orientation.
+    private static byte[] exifSegment(int orientation) {
+        ByteBuffer segment = ByteBuffer.allocate(36).order(ByteOrder.BIG_ENDIAN);
+        segment.putShort((short) 0xFFE1);
+        segment.putShort((short) 34);
+        segment.put(EXIF_HEADER);
+        segment.put((byte) 'M').put((byte) 'M').putShort((short) 42).putInt(8);
+        segment.putShort((short) 1);
+        segment.putShort((short) TAG_ORIENTATION).putShort((short) TiffReader.TYPE_SHORT).putInt(1)
+                .putShort((short) orientation).putShort((short) 0);
+        segment.putInt(0);
+        return segment.array();
+    }
+}
@@ -0,0 +1,115 @@
+package me.danb76.photos.service.image;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * Finds the JPEG preview that Canon CR2 files embed next to the raw sensor data. The first
+ * directory of a CR2 points at a full-size JPEG rendered by the camera, and the second at a
+ * small thumbnail, so renditions can be made from the preview without demosaicing the RAW.
+ * The preview is stored as the sensor saw it; the orientation is in the RAW's own EXIF, see
+ * {@link ExifReader}.
+ */
+public final class RawPreview {
+    /**
+     * Bytes at the start of the file that hold the directories we need.
+     */
+    public static final int HEADER_BYTES = ExifReader.MAX_HEADER_BYTES;
+
+    // A full-size preview from a high-resolution body is a few megabytes; anything near this is corrupt.
+    private static final long MAX_PREVIEW_BYTES = 64L * 1024 * 1024;
+
+    private static final int TAG_COMPRESSION = 0x0103;
+    private static final int TAG_STRIP_OFFSETS = 0x0111;
+    private static final int TAG_STRIP_BYTE_COUNTS = 0x0117;
+    private static final int TAG_JPEG_OFFSET = 0x0201;
+    private static final int TAG_JPEG_LENGTH = 0x0202;
+    private static final int COMPRESSION_OLD_JPEG = 6;
+
+    record Location(long offset, long length) {
+    }
+
+    private RawPreview() {
+    }
+
+    public static boolean isRaw(String fileName) {
+        return fileName.toLowerCase().endsWith(".cr2");
+    }
+
+    /**
+     * Reads the largest embedded preview from a RAW file, consuming the stream only as far as
+     * the end of the preview.
+     *
+     * @param inputStream the file from its first byte
+     * @return the preview JPEG, or null if the file has none
+     */
+    public static byte[] extract(InputStream inputStream) throws IOException {
+        byte[] header = inputStream.readNBytes(HEADER_BYTES);
+        Location location;
+        try {
+            location = locate(new TiffReader(ByteBuffer.wrap(header)));
+        } catch (IOException e) {
+            return null;
+        }
+        if (location == null) {
+            return null;
+        }
+
+        byte[] preview = new byte[(int) location.length()];
+        int fromHeader = (int) Math.max(0, Math.min(header.length - location.offset(), preview.length));
+        if (fromHeader > 0) {
+            System.arraycopy(header, (int) location.offset(), preview, 0, fromHeader);
+        } else {
+            inputStream.skipNBytes(location.offset() - header.length);
+        }
+        if (inputStream.readNBytes(preview, fromHeader, preview.length - fromHeader) != preview.length - fromHeader) {
+            throw new EOFException("RAW file ends inside its embedded preview");
+        }
+
+        if (preview.length < 2 || preview[0] != (byte) 0xFF || preview[1] != (byte) 0xD8) {
+            return null;
+        }
+        return preview;
+    }
+
+    static Location locate(TiffReader tiff) throws IOException {
+        int offset = tiff.firstDirectoryOffset();
+        Map<Integer, TiffReader.Entry> ifd0 = tiff.readDirectory(offset);
+
+        // The full-size preview is a single strip of old-style JPEG in the first directory.
+        Location location = null;
+        TiffReader.Entry strips = ifd0.get(TAG_STRIP_OFFSETS);
+        TiffReader.Entry stripBytes = ifd0.get(TAG_STRIP_BYTE_COUNTS);
+        TiffReader.Entry compression = ifd0.get(TAG_COMPRESSION);
+        if (strips != null && stripBytes != null && strips.count() == 1
+                && compression != null && tiff.getInteger(compression, 0) == COMPRESSION_OLD_JPEG) {
+            location = valid(tiff.getInteger(strips, 0), tiff.getInteger(stripBytes, 0));
+        }
+        if (location != null) {
+            return location;
+        }
+
+        // Otherwise fall back to the thumbnail in the second directory.
+        int next = tiff.nextDirectoryOffset(offset);
+        if (next <= 0) {
+            return null;
+        }
+        Map<Integer, TiffReader.Entry> ifd1 = tiff.readDirectory(next);
+        TiffReader.Entry jpegOffset = ifd1.get(TAG_JPEG_OFFSET);
+        TiffReader.Entry jpegLength = ifd1.get(TAG_JPEG_LENGTH);
+        if (jpegOffset == null || jpegLength == null) {
+            return null;
+        }
+        return valid(tiff.getInteger(jpegOffset, 0), tiff.getInteger(jpegLength, 0));
+    }
+
+    private static Location valid(long offset, long length) {
+        if (offset <= 0 || length <= 0 || length > MAX_PREVIEW_BYTES) {
+            return null;
+        }
+        return new Location(offset, length);
+    }
+}
@@ -0,0 +1,160 @@
+package me.danb76.photos.service.image;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Minimal reader for TIFF image file directories, as found in EXIF segments and in TIFF-based
+ * RAW files. Only reads tag values; it never touches image data.
+ */
+final class TiffReader {
+    static final int TYPE_BYTE = 1;
+    static final int TYPE_ASCII = 2;
+    static final int TYPE_SHORT = 3;
+    static final int TYPE_LONG = 4;
+    static final int TYPE_RATIONAL = 5;
+    static final int TYPE_UNDEFINED = 7;
+    static final int TYPE_SLONG = 9;
+    static final int TYPE_SRATIONAL = 10;
+
+    // Guards against corrupt files that claim absurd numbers of entries.
+    private static final int MAX_ENTRIES = 1024;
+
+    record Entry(int tag, int type, long count, int valueOffset) {
+    }
+
+    private final ByteBuffer buffer;
+
+    /**
+     * @param data the TIFF structure, starting at its byte order mark
+     */
+    TiffReader(ByteBuffer data) throws IOException {
+        this.buffer = data.slice();
+        if (buffer.remaining() < 8) {
+            throw new IOException("TIFF header truncated");
+        }
+        short byteOrder = buffer.getShort(0);
+        if (byteOrder == 0x4949) {
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+        } else if (byteOrder == 0x4D4D) {
+            buffer.order(ByteOrder.BIG_ENDIAN);
+        } else {
+            throw new IOException("Not a TIFF structure");
+        }
+        if (buffer.getShort(2) != 42) {
+            throw new IOException("Unexpected TIFF magic number");
+        }
+    }
+
+    ByteOrder order() {
+        return buffer.order();
+    }
+
+    int firstDirectoryOffset() {
+        return buffer.getInt(4);
+    }
+
+    /**
+     * Returns the offset of the directory that follows the one at {@code offset}, or 0 if it is the last.
+     */
+    int nextDirectoryOffset(int offset) throws IOException {
+        try {
+            int count = Short.toUnsignedInt(buffer.getShort(offset));
+            return buffer.getInt(offset + 2 + count * 12);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("TIFF directory at " + offset + " is truncated", e);
+        }
+    }
+
+    /**
+     * Reads the entries of the directory at {@code offset}, keyed by tag.
+     */
+    Map<Integer, Entry> readDirectory(int offset) throws IOException {
+        try {
+            int count = Short.toUnsignedInt(buffer.getShort(offset));
+            if (count > MAX_ENTRIES) {
+                throw new IOException("TIFF directory has " + count + " entries");
+            }
+
+            Map<Integer, Entry> entries = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                int position = offset + 2 + i * 12;
+                int tag = Short.toUnsignedInt(buffer.getShort(position));
+                int type = Short.toUnsignedInt(buffer.getShort(position + 2));
+                long valueCount = Integer.toUnsignedLong(buffer.getInt(position + 4));
+                long size = valueCount * typeSize(type);
+                // Values of up to four bytes are stored in the entry itself, longer ones elsewhere.
+                int valueOffset = size <= 4 ? position + 8 : buffer.getInt(position + 8);
+                if (size > 0 && (valueOffset < 0 || valueOffset + size > buffer.limit())) {
+                    continue;
+                }
+                entries.put(tag, new Entry(tag, type, valueCount, valueOffset));
+            }
+            return entries;
+        } catch (IndexOutOfBoundsException | BufferUnderflowException e) {
+            throw new IOException("TIFF directory at " + offset + " is truncated", e);
+        }
+    }
+
+    String getString(Entry entry) {
+        if (entry.type() != TYPE_ASCII && entry.type() != TYPE_UNDEFINED) {
+            return null;
+        }
+        byte[] bytes = new byte[(int) entry.count()];
+        buffer.get(entry.valueOffset(), bytes);
+        int length = 0;
+        while (length < bytes.length && bytes[length] != 0) {
+            length++;
+        }
+        String value = new String(bytes, 0, length, StandardCharsets.US_ASCII).trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    /**
+     * Returns value {@code index} of a BYTE, SHORT or LONG entry, or -1 for other types.
+     */
+    long getInteger(Entry entry, int index) {
+        if (index >= entry.count()) {
+            return -1;
+        }
+        return switch (entry.type()) {
+            case TYPE_BYTE, TYPE_UNDEFINED -> Byte.toUnsignedInt(buffer.get(entry.valueOffset() + index));
+            case TYPE_SHORT -> Short.toUnsignedInt(buffer.getShort(entry.valueOffset() + index * 2));
+            case TYPE_LONG -> Integer.toUnsignedLong(buffer.getInt(entry.valueOffset() + index * 4));
+            case TYPE_SLONG -> buffer.getInt(entry.valueOffset() + index * 4);
+            default -> -1;
+        };
+    }
+
+    /**
+     * Returns the numerator and denominator of a RATIONAL entry, or null for other types.
+     */
+    long[] getRational(Entry entry) {
+        if (entry.count() < 1) {
+            return null;
+        }
+        return switch (entry.type()) {
+            case TYPE_RATIONAL -> new long[]{
+                    Integer.toUnsignedLong(buffer.getInt(entry.valueOffset())),
+                    Integer.toUnsignedLong(buffer.getInt(entry.valueOffset() + 4))};
+            case TYPE_SRATIONAL -> new long[]{
+                    buffer.getInt(entry.valueOffset()),
+                    buffer.getInt(entry.valueOffset() + 4)};
+            default -> null;
+        };
+    }
+
+    private static int typeSize(int type) {
+        return switch (type) {
+            case TYPE_SHORT -> 2;
+            case TYPE_LONG, TYPE_SLONG, 11 -> 4;
+            case TYPE_RATIONAL, TYPE_SRATIONAL, 12 -> 8;
+            default -> 1;
+        };
+    }
+}
@@ -0,0 +1,121 @@
+-- Insert and lookup benchmark for the three id layouts the tables have had or could have:
+--   char36_v4   CHAR(36) random ids, the text layout migrate-uuid-binary16.sql converts from
+--   binary16_v4 BINARY(16) random ids, what GenerationType.AUTO produced
+--   binary16_v7 BINARY(16) time-ordered ids, what UuidV7Generator produces
+--
+-- Each table is shaped like photo: the id as the clustered primary key plus a secondary
+-- index on (category, created_at), whose entries carry a copy of the primary key.
+--
+-- Run against a scratch schema, never the application's:
+--   mysql scratch < benchmark-uuid-keys.sql
+-- The CALL at the bottom sets the row count. Random ids only fall behind once the primary
+-- key outgrows the buffer pool, so use enough rows (or a small innodb_buffer_pool_size) for
+-- the index to exceed it.
+--
+-- The v7 ids are built in SQL the same way the generator lays them out: a 48-bit
+-- millisecond timestamp, a counter within the millisecond, then random bytes.
+
+DROP PROCEDURE IF EXISTS uuid_key_benchmark_layout;
+DROP PROCEDURE IF EXISTS uuid_key_benchmark;
+
+DELIMITER //
+
+CREATE PROCEDURE uuid_key_benchmark_layout(IN layout VARCHAR(32), IN id_type VARCHAR(16), IN id_expr VARCHAR(255), IN category_expr VARCHAR(255), IN row_count INT)
+BEGIN
+    DECLARE started DATETIME(6);
+    DECLARE insert_ms BIGINT;
+    DECLARE lookup_ms BIGINT;
+    DECLARE found BIGINT;
+
+    SET @ddl = CONCAT('DROP TABLE IF EXISTS bench_', layout);
+    PREPARE stmt FROM @ddl; EXECUTE stmt; DEALLOCATE PREPARE stmt;
+    SET @ddl = CONCAT('CREATE TABLE bench_', layout, ' (',
+            'id ', id_type, ' NOT NULL PRIMARY KEY, ',
+            'category ', id_type, ' NOT NULL, ',
+            'created_at DATETIME(6) NOT NULL, ',
+            'payload VARCHAR(255) NOT NULL, ',
+            'INDEX idx_category_created (category, created_at)) ENGINE=InnoDB');
+    PREPARE stmt FROM @ddl; EXECUTE stmt; DEALLOCATE PREPARE stmt;
+
+    SET @insert = CONCAT('INSERT INTO bench_', layout, ' (id, category, created_at, payload) VALUES (',
+            id_expr, ', ', category_expr, ', SYSDATE(6), REPEAT(''x'', 200))');
+    PREPARE stmt FROM @insert;
+
+    SET @i = 0;
+    SET started = SYSDATE(6);
+    START TRANSACTION;
+    WHILE @i < row_count DO
+        EXECUTE stmt;
+        SET @i = @i + 1;
+        IF @i MOD 1000 = 0 THEN
+            COMMIT;
+            START TRANSACTION;
+        END IF;
+    END WHILE;
+    COMMIT;
+    SET insert_ms = TIMESTAMPDIFF(MICROSECOND, started, SYSDATE(6)) DIV 1000;
+    DEALLOCATE PREPARE stmt;
+
+    -- Point lookups by primary key for a random sample of the ids just inserted.
+    DROP TEMPORARY TABLE IF EXISTS bench_sample;
+    SET @ddl = CONCAT('CREATE TEMPORARY TABLE bench_sample (id ', id_type, ' NOT NULL) ENGINE=InnoDB');
+    PREPARE stmt FROM @ddl; EXECUTE stmt; DEALLOCATE PREPARE stmt;
+    SET @ddl = CONCAT('INSERT INTO bench_sample SELECT id FROM bench_', layout, ' ORDER BY RAND() LIMIT 10000');
+    PREPARE stmt FROM @ddl; EXECUTE stmt; DEALLOCATE PREPARE stmt;
+
+    SET @ddl = CONCAT('SELECT COUNT(t.payload) INTO @found FROM bench_sample s STRAIGHT_JOIN bench_', layout, ' t ON t.id = s.id');
+    SET started = SYSDATE(6);
+    PREPARE stmt FROM @ddl; EXECUTE stmt; DEALLOCATE PREPARE stmt;
+    SET lookup_ms = TIMESTAMPDIFF(MICROSECOND, started, SYSDATE(6)) DIV 1000;
+    SET found = @found;
+    DROP TEMPORARY TABLE bench_sample;
+
+    SET @ddl = CONCAT('ANALYZE TABLE bench_', layout);
+    PREPARE stmt FROM @ddl; EXECUTE stmt; DEALLOCATE PREPARE stmt;
+
+    INSERT INTO bench_results (layout, row_count, insert_ms, lookups, lookup_ms, primary_leaf_pages, primary_mb, secondary_mb)
+    SELECT layout, row_count, insert_ms, found, lookup_ms,
+            MAX(CASE WHEN index_name = 'PRIMARY' AND stat_name = 'n_leaf_pages' THEN stat_value END),
+            ROUND(MAX(CASE WHEN index_name = 'PRIMARY' AND stat_name = 'size' THEN stat_value END) * @@innodb_page_size / 1048576, 1),
+            ROUND(MAX(CASE WHEN index_name = 'idx_category_created' AND stat_name = 'size' THEN stat_value END) * @@innodb_page_size / 1048576, 1)
+    FROM mysql.innodb_index_stats
+    WHERE database_name = DATABASE() AND table_name = CONCAT('bench_', layout);
+END //
+
+CREATE PROCEDURE uuid_key_benchmark(IN row_count INT)
+BEGIN
+    DROP TABLE IF EXISTS bench_results;
+    CREATE TABLE bench_results (
+        layout VARCHAR(32) NOT NULL PRIMARY KEY,
+        row_count INT NOT NULL,
+        insert_ms BIGINT NOT NULL,
+        lookups BIGINT NOT NULL,
+        lookup_ms BIGINT NOT NULL,
+        primary_leaf_pages BIGINT,
+        primary_mb DECIMAL(10, 1),
+        secondary_mb DECIMAL(10, 1)
+    ) ENGINE=InnoDB;
+
+    -- Rows are spread over eight categories, whose ids use the same column type as the key.
+    CALL uuid_key_benchmark_layout('char36_v4', 'CHAR(36)',
+            'BIN_TO_UUID(RANDOM_BYTES(16))',
+            'BIN_TO_UUID(UNHEX(MD5(@i MOD 8)))', row_count);
+
+    CALL uuid_key_benchmark_layout('binary16_v4', 'BINARY(16)',
+            'RANDOM_BYTES(16)',
+            'UNHEX(MD5(@i MOD 8))', row_count);
+
+    CALL uuid_key_benchmark_layout('binary16_v7', 'BINARY(16)',
+            'CONCAT(UNHEX(LPAD(HEX(FLOOR(UNIX_TIMESTAMP(SYSDATE(6)) * 1000)), 12, ''0'')), UNHEX(LPAD(HEX(@i MOD 65536), 4, ''0'')), RANDOM_BYTES(8))',
+            'UNHEX(MD5(@i MOD 8))', row_count);
+
+    SELECT * FROM bench_results ORDER BY layout;
+END //
+
+DELIMITER ;
+
+CALL uuid_key_benchmark(1000000);
+
+DROP TABLE IF EXISTS bench_char36_v4, bench_binary16_v4, bench_binary16_v7;
+DROP PROCEDURE uuid_key_benchmark_layout;
+DROP PROCEDURE uuid_key_benchmark;
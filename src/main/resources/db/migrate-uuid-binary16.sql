@@ -0,0 +1,37 @@
+-- Moves UUID columns that were created as CHAR(36) text to BINARY(16), the layout the
+-- entities now declare. Tables created by Hibernate 6 on MySQL already use BINARY(16)
+-- and need none of this; check with SHOW CREATE TABLE first.
+--
+-- Existing random (v4) ids are kept as they are: category ids double as MinIO bucket
+-- names and photo ids are handed out to clients, so rows are not re-keyed. Only new rows
+-- get time-ordered v7 ids, which are appended to the index in order.
+--
+-- Run with the application stopped, one table at a time.
+
+ALTER TABLE photo ADD COLUMN id_bin BINARY(16), ADD COLUMN category_bin BINARY(16);
+UPDATE photo SET id_bin = UUID_TO_BIN(id), category_bin = UUID_TO_BIN(category);
+ALTER TABLE photo DROP PRIMARY KEY, DROP COLUMN id, DROP COLUMN category;
+ALTER TABLE photo RENAME COLUMN id_bin TO id, RENAME COLUMN category_bin TO category;
+ALTER TABLE photo MODIFY id BINARY(16) NOT NULL, ADD PRIMARY KEY (id);
+
+ALTER TABLE job ADD COLUMN id_bin BINARY(16), ADD COLUMN category_bin BINARY(16);
+UPDATE job SET id_bin = UUID_TO_BIN(id), category_bin = UUID_TO_BIN(category);
+ALTER TABLE job DROP PRIMARY KEY, DROP COLUMN id, DROP COLUMN category;
+ALTER TABLE job RENAME COLUMN id_bin TO id, RENAME COLUMN category_bin TO category;
+ALTER TABLE job MODIFY id BINARY(16) NOT NULL, ADD PRIMARY KEY (id);
+
+ALTER TABLE category ADD COLUMN id_bin BINARY(16);
+UPDATE category SET id_bin = UUID_TO_BIN(id);
+ALTER TABLE category DROP PRIMARY KEY, DROP COLUMN id;
+ALTER TABLE category RENAME COLUMN id_bin TO id;
+ALTER TABLE category MODIFY id BINARY(16) NOT NULL, ADD PRIMARY KEY (id);
+
+ALTER TABLE login_attempts ADD COLUMN id_bin BINARY(16);
+UPDATE login_attempts SET id_bin = UUID_TO_BIN(id);
+ALTER TABLE login_attempts DROP PRIMARY KEY, DROP COLUMN id;
+ALTER TABLE login_attempts RENAME COLUMN id_bin TO id;
+ALTER TABLE login_attempts MODIFY id BINARY(16) NOT NULL, ADD PRIMARY KEY (id);
+
+-- Dropping the columns above also dropped the indexes that covered them; Hibernate
+-- recreates idx_photo_category_created and idx_job_processing_timestamp on next start
+-- when spring.jpa.hibernate.ddl-auto=update.
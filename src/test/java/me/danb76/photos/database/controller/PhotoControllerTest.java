@@ -0,0 +1,239 @@
+package me.danb76.photos.database.controller;
+
+import io.minio.GetObjectArgs;
+import io.minio.MinioClient;
+import io.minio.StatObjectArgs;
+import io.minio.StatObjectResponse;
+import me.danb76.photos.database.repositories.PhotosRepository;
+import me.danb76.photos.database.tables.Photo;
+import me.danb76.photos.service.cache.CachedObject;
+import me.danb76.photos.service.cache.DiskRenditionCache;
+import me.danb76.photos.service.cache.ObjectMetadata;
+import me.danb76.photos.service.cache.PresignedUrlCache;
+import me.danb76.photos.service.cache.RenditionCache;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Limit;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PhotoControllerTest {
+	private static final long CREATED_AT = 1_700_000_000_000L;
+	private static final String ETAG = "0123456789abcdef";
+	private static final String FILE_NAME = "480_photo.jpg";
+
+	@Test
+	void nextPageStartsAfterTheLastPhotoWhenTimestampsAreEqual() {
+		UUID category = UUID.randomUUID();
+		Photo newer = photo(category, "0190a8f2-0000-7000-8000-000000000003");
+		Photo middle = photo(category, "0190a8f2-0000-7000-8000-000000000002");
+		Photo older = photo(category, "0190a8f2-0000-7000-8000-000000000001");
+
+		PhotosRepository repository = mock(PhotosRepository.class);
+		when(repository.findFirstPage(eq(category), any(Limit.class))).thenReturn(List.of(newer, middle, older));
+		PhotoController controller = new PhotoController();
+		ReflectionTestUtils.setField(controller, "repository", repository);
+
+		ResponseEntity<Map<String, Object>> page = controller.getPhotosByCategory(category, null, 2, false);
+		assertEquals(HttpStatus.OK, page.getStatusCode());
+		assertEquals(2, ((List<?>) page.getBody().get("photos")).size());
+
+		PhotoCursor next = PhotoCursor.decode((String) page.getBody().get("next"));
+		assertEquals(CREATED_AT, next.time());
+		assertEquals(middle.getId(), next.id());
+
+		controller.getPhotosByCategory(category, (String) page.getBody().get("next"), 2, false);
+		verify(repository).findPageAfter(eq(category), eq(CREATED_AT), eq(middle.getId()), any(Limit.class));
+	}
+
+	@Test
+	void rangeStartingPastTheEndIsNotSatisfiable() throws IOException {
+		ResponseEntity<StreamingResponseBody> response = getRange(500, "bytes=1000-", null);
+		assertEquals(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE, response.getStatusCode());
+		assertEquals("bytes */500", response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+		assertNull(response.getBody());
+	}
+
+	@Test
+	void emptySuffixRangeIsNotSatisfiable() throws IOException {
+		ResponseEntity<StreamingResponseBody> response = getRange(500, "bytes=-0", null);
+		assertEquals(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE, response.getStatusCode());
+		assertEquals("bytes */500", response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+	}
+
+	@Test
+	void rangeOverAnEmptyObjectIsNotSatisfiable() throws IOException {
+		ResponseEntity<StreamingResponseBody> response = getRange(0, "bytes=0-", null);
+		assertEquals(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE, response.getStatusCode());
+		assertEquals("bytes */0", response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+	}
+
+	@Test
+	void suffixLongerThanTheObjectServesTheWholeObject() throws IOException {
+		ResponseEntity<StreamingResponseBody> response = getRange(500, "bytes=-1000", null);
+		assertEquals(HttpStatus.PARTIAL_CONTENT, response.getStatusCode());
+		assertEquals("bytes 0-499/500", response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+		assertEquals(500, response.getHeaders().getContentLength());
+		assertArrayEquals(content(500), body(response));
+	}
+
+	@Test
+	void satisfiableRangeServesOnlyThoseBytes() throws IOException {
+		ResponseEntity<StreamingResponseBody> response = getRange(500, "bytes=100-199", null);
+		assertEquals(HttpStatus.PARTIAL_CONTENT, response.getStatusCode());
+		assertEquals("bytes 100-199/500", response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+		assertArrayEquals(Arrays.copyOfRange(content(500), 100, 200), body(response));
+	}
+
+	@Test
+	void ifRangeMismatchServesTheWholeObject() throws IOException {
+		ResponseEntity<StreamingResponseBody> response = getRange(500, "bytes=100-199", "\"stale\"");
+		assertEquals(HttpStatus.OK, response.getStatusCode());
+		assertNull(response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+		assertArrayEquals(content(500), body(response));
+	}
+
+	@Test
+	void ifRangeMatchServesTheRange() throws IOException {
+		ResponseEntity<StreamingResponseBody> response = getRange(500, "bytes=100-199", "\"" + ETAG + "\"");
+		assertEquals(HttpStatus.PARTIAL_CONTENT, response.getStatusCode());
+		assertEquals("bytes 100-199/500", response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+	}
+
+	@Test
+	void rotatedOriginalFailsIfMatchWithThePreRotationTag() throws Exception {
+		HttpHeaders requestHeaders = new HttpHeaders();
+		requestHeaders.setIfMatch("\"" + ETAG + "\"");
+
+		ResponseEntity<StreamingResponseBody> response = getRotatedOriginal(CREATED_AT + 60_000, requestHeaders);
+		assertEquals(HttpStatus.PRECONDITION_FAILED, response.getStatusCode());
+		assertEquals("\"" + ETAG + "-o6\"", response.getHeaders().getETag());
+	}
+
+	@Test
+	void rotatedOriginalIsModifiedSinceTheUpload() throws Exception {
+		HttpHeaders requestHeaders = new HttpHeaders();
+		requestHeaders.setIfModifiedSince(CREATED_AT);
+
+		ResponseEntity<StreamingResponseBody> response = getRotatedOriginal(CREATED_AT + 60_000, requestHeaders);
+		assertNotEquals(HttpStatus.NOT_MODIFIED, response.getStatusCode());
+	}
+
+	@Test
+	void rotatedOriginalIsNotModifiedSinceTheRotation() throws Exception {
+		HttpHeaders requestHeaders = new HttpHeaders();
+		requestHeaders.setIfModifiedSince(CREATED_AT + 60_000);
+
+		ResponseEntity<StreamingResponseBody> response = getRotatedOriginal(CREATED_AT + 60_000, requestHeaders);
+		assertEquals(HttpStatus.NOT_MODIFIED, response.getStatusCode());
+		assertEquals(CREATED_AT + 60_000, response.getHeaders().getLastModified());
+	}
+
+	@Test
+	void rotatedOriginalWithoutARotationTimeIgnoresDateConditions() throws Exception {
+		HttpHeaders requestHeaders = new HttpHeaders();
+		requestHeaders.setIfModifiedSince(CREATED_AT + 60_000);
+
+		ResponseEntity<StreamingResponseBody> response = getRotatedOriginal(0, requestHeaders);
+		assertNotEquals(HttpStatus.NOT_MODIFIED, response.getStatusCode());
+		assertEquals(-1, response.getHeaders().getLastModified());
+	}
+
+	/**
+	 * Requests an original stored at {@code CREATED_AT} and turned a quarter once. Reading the
+	 * body from storage fails, so only responses decided by the validators succeed.
+	 */
+	private static ResponseEntity<StreamingResponseBody> getRotatedOriginal(long rotatedAt, HttpHeaders requestHeaders) throws Exception {
+		UUID category = UUID.randomUUID();
+		String fileName = "original_photo.jpg";
+		Photo photo = photo(category, "0190a8f2-0000-7000-8000-000000000001");
+		photo.setFullPhoto(fileName);
+		ReflectionTestUtils.setField(photo, "orientation", 1);
+		ReflectionTestUtils.setField(photo, "rotation", 1);
+		ReflectionTestUtils.setField(photo, "rotatedAt", rotatedAt);
+
+		PhotosRepository repository = mock(PhotosRepository.class);
+		when(repository.findFirstByCategoryAndFullPhoto(category, fileName)).thenReturn(Optional.of(photo));
+		StatObjectResponse stat = mock(StatObjectResponse.class);
+		when(stat.etag()).thenReturn(ETAG);
+		when(stat.lastModified()).thenReturn(Instant.ofEpochMilli(CREATED_AT).atZone(ZoneOffset.UTC));
+		when(stat.contentType()).thenReturn("image/jpeg");
+		when(stat.size()).thenReturn(500L);
+		MinioClient minioClient = mock(MinioClient.class);
+		when(minioClient.statObject(any(StatObjectArgs.class))).thenReturn(stat);
+		when(minioClient.getObject(any(GetObjectArgs.class))).thenThrow(new IOException("unavailable"));
+
+		PhotoController controller = new PhotoController();
+		ReflectionTestUtils.setField(controller, "repository", repository);
+		ReflectionTestUtils.setField(controller, "minioClient", minioClient);
+		return controller.getPhoto(category, fileName, requestHeaders);
+	}
+
+	/**
+	 * Requests a range of an object held by the memory tier, so no storage is involved.
+	 */
+	private static ResponseEntity<StreamingResponseBody> getRange(int size, String range, String ifRange) {
+		UUID category = UUID.randomUUID();
+		ObjectMetadata metadata = new ObjectMetadata(ETAG, CREATED_AT, "image/jpeg", size);
+		CachedObject cached = new CachedObject(metadata, ByteBuffer.wrap(content(size)));
+
+		RenditionCache renditionCache = mock(RenditionCache.class);
+		when(renditionCache.get(category.toString(), FILE_NAME)).thenReturn(cached);
+		PhotoController controller = new PhotoController();
+		ReflectionTestUtils.setField(controller, "renditionCache", renditionCache);
+		ReflectionTestUtils.setField(controller, "diskCache", mock(DiskRenditionCache.class));
+		ReflectionTestUtils.setField(controller, "presignedUrls", mock(PresignedUrlCache.class));
+
+		HttpHeaders requestHeaders = new HttpHeaders();
+		requestHeaders.set(HttpHeaders.RANGE, range);
+		if (ifRange != null) {
+			requestHeaders.set(HttpHeaders.IF_RANGE, ifRange);
+		}
+		return controller.getPhoto(category, FILE_NAME, requestHeaders);
+	}
+
+	private static byte[] content(int size) {
+		byte[] content = new byte[size];
+		for (int i = 0; i < size; i++) {
+			content[i] = (byte) i;
+		}
+		return content;
+	}
+
+	private static byte[] body(ResponseEntity<StreamingResponseBody> response) throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		response.getBody().writeTo(outputStream);
+		return outputStream.toByteArray();
+	}
+
+	private static Photo photo(UUID category, String id) {
+		Photo photo = new Photo();
+		photo.setCategory(category);
+		ReflectionTestUtils.setField(photo, "id", UUID.fromString(id));
+		ReflectionTestUtils.setField(photo, "createdAt", CREATED_AT);
+		return photo;
+	}
+}
@@ -0,0 +1,47 @@
+package me.danb76.photos.database.controller;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PhotoCursorTest {
+
+	@Test
+	void roundTrips() {
+		PhotoCursor cursor = new PhotoCursor(1_700_000_000_123L, UUID.randomUUID());
+
+		assertEquals(cursor, PhotoCursor.decode(cursor.encode()));
+	}
+
+	@Test
+	void encodesAsUrlSafeText() {
+		String encoded = new PhotoCursor(Long.MAX_VALUE, UUID.randomUUID()).encode();
+
+		assertTrue(encoded.matches("[A-Za-z0-9_-]+"), encoded);
+	}
+
+	@Test
+	void keepsTheIdThatBreaksTiesOnEqualTimestamps() {
+		long time = 1_700_000_000_000L;
+		PhotoCursor first = new PhotoCursor(time, UUID.fromString("0190a8f2-0000-7000-8000-000000000002"));
+		PhotoCursor second = new PhotoCursor(time, UUID.fromString("0190a8f2-0000-7000-8000-000000000001"));
+
+		assertNotEquals(first.encode(), second.encode());
+		assertEquals(first.id(), PhotoCursor.decode(first.encode()).id());
+		assertEquals(second.id(), PhotoCursor.decode(second.encode()).id());
+		assertEquals(time, PhotoCursor.decode(second.encode()).time());
+	}
+
+	@Test
+	void rejectsCursorsItDidNotProduce() {
+		assertNull(PhotoCursor.decode("not base64!"));
+		assertNull(PhotoCursor.decode(""));
+		assertNull(PhotoCursor.decode("MTIz"));
+		assertNull(PhotoCursor.decode("YWJjOjEyMw"));
+	}
+}
@@ -0,0 +1,50 @@
+package me.danb76.photos.database.generator;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UuidV7GeneratorTest {
+
+	@Test
+	void setsVersionAndVariant() {
+		UUID id = UuidV7Generator.next();
+
+		assertEquals(7, id.version());
+		assertEquals(2, id.variant());
+	}
+
+	@Test
+	void startsWithTheCurrentUnixMillisecond() {
+		long before = System.currentTimeMillis();
+		UUID id = UuidV7Generator.next();
+		long after = System.currentTimeMillis();
+
+		long timestamp = id.getMostSignificantBits() >>> 16;
+		// The clock may run a little ahead when earlier bursts made the counter borrow milliseconds.
+		assertTrue(timestamp >= before && timestamp <= after + 1000, "timestamp " + timestamp);
+	}
+
+	@Test
+	void idsIncreaseWithinAndAcrossMilliseconds() {
+		UUID previous = UuidV7Generator.next();
+		int sameMillisecond = 0;
+		// More than the 4096 counter values, so the counter also has to borrow a millisecond.
+		for (int i = 0; i < 100_000; i++) {
+			UUID id = UuidV7Generator.next();
+			// BINARY(16) columns compare bytes unsigned, and the high half always differs.
+			assertTrue(Long.compareUnsigned(id.getMostSignificantBits(), previous.getMostSignificantBits()) > 0,
+					previous + " then " + id);
+			if (id.getMostSignificantBits() >>> 16 == previous.getMostSignificantBits() >>> 16) {
+				sameMillisecond++;
+			}
+			assertEquals(7, id.version());
+			assertEquals(2, id.variant());
+			previous = id;
+		}
+		assertTrue(sameMillisecond > 0, "no two ids shared a millisecond");
+	}
+}
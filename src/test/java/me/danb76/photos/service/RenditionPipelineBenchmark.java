@@ -0,0 +1,101 @@
+package me.danb76.photos.service;
+
+import io.minio.MinioClient;
+import io.minio.ObjectWriteResponse;
+import io.minio.PutObjectArgs;
+import org.imgscalr.Scalr;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Compares the CPU time of rendering a 24 MP photo the old way, each rendition scaled from the
+ * full image, with the cascading {@link RenditionPipeline}. Uploads go to a mock client, so only
+ * scaling and encoding are measured. Run with {@code PHOTOS_BENCHMARK=true ./gradlew test}.
+ */
+@EnabledIfEnvironmentVariable(named = "PHOTOS_BENCHMARK", matches = "true")
+class RenditionPipelineBenchmark {
+
+	private static final int WIDTH = 6000;
+	private static final int HEIGHT = 4000;
+	private static final int WARMUP = 3;
+	private static final int ITERATIONS = 10;
+
+	@Test
+	void cascadeUsesLessCpuThanScalingFromTheOriginal() throws Exception {
+		MinioClient minioClient = mock(MinioClient.class);
+		when(minioClient.putObject(any(PutObjectArgs.class))).thenReturn(mock(ObjectWriteResponse.class));
+		RenditionPipeline pipeline = new RenditionPipeline();
+		ReflectionTestUtils.setField(pipeline, "minioClient", minioClient);
+
+		BufferedImage source = photo();
+		UUID category = UUID.randomUUID();
+		try {
+			for (int i = 0; i < WARMUP; i++) {
+				fromOriginal(source);
+				pipeline.render(category, source, 1, "photo.jpg");
+			}
+
+			long fromOriginal = 0;
+			long cascade = 0;
+			for (int i = 0; i < ITERATIONS; i++) {
+				long start = cpuTime();
+				fromOriginal(source);
+				fromOriginal += cpuTime() - start;
+
+				start = cpuTime();
+				pipeline.render(category, source, 1, "photo.jpg");
+				cascade += cpuTime() - start;
+			}
+
+			System.out.printf("24 MP renditions, CPU ms per photo: from original %.1f, cascade %.1f%n",
+					fromOriginal / 1e6 / ITERATIONS, cascade / 1e6 / ITERATIONS);
+			assertTrue(cascade < fromOriginal);
+		} finally {
+			pipeline.shutdown();
+		}
+	}
+
+	// The renditions as JobsService produced them before the pipeline.
+	private static void fromOriginal(BufferedImage source) throws IOException {
+		for (int maxHeight : new int[]{RenditionPipeline.LOW_RES_HEIGHT, RenditionPipeline.HIGH_RES_HEIGHT}) {
+			int newWidth = (int) Math.round((double) maxHeight / source.getHeight() * source.getWidth());
+			BufferedImage scaled = Scalr.resize(source, Scalr.Method.QUALITY, Scalr.Mode.FIT_TO_HEIGHT, newWidth, maxHeight);
+			ImageIO.write(scaled, "jpg", new ByteArrayOutputStream());
+		}
+	}
+
+	// Process CPU time, so work on the upload threads is counted too.
+	private static long cpuTime() {
+		return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean()).getProcessCpuTime();
+	}
+
+	// A gradient with noise, so the encoder sees detail rather than flat colour.
+	private static BufferedImage photo() {
+		BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR);
+		Random random = new Random(24);
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				int noise = random.nextInt(32);
+				int r = (x * 255 / WIDTH + noise) & 0xFF;
+				int g = (y * 255 / HEIGHT + noise) & 0xFF;
+				int b = ((x + y) * 255 / (WIDTH + HEIGHT)) & 0xFF;
+				image.setRGB(x, y, (r << 16) | (g << 8) | b);
+			}
+		}
+		return image;
+	}
+}
@@ -0,0 +1,52 @@
+package me.danb76.photos.service;
+
+import io.minio.MinioClient;
+import io.minio.ObjectWriteResponse;
+import io.minio.PutObjectArgs;
+import io.minio.RemoveObjectArgs;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class RenditionPipelineTest {
+
+	@Test
+	void failedRenditionRemovesTheOnesAlreadyUploaded() throws Exception {
+		MinioClient minioClient = mock(MinioClient.class);
+		CountDownLatch lowResUploaded = new CountDownLatch(1);
+		when(minioClient.putObject(any(PutObjectArgs.class))).thenAnswer(invocation -> {
+			PutObjectArgs args = invocation.getArgument(0);
+			if (args.object().startsWith(RenditionType.HIGH_RES.getPrefix())) {
+				lowResUploaded.await(10, TimeUnit.SECONDS);
+				throw new IOException("connection reset");
+			}
+			lowResUploaded.countDown();
+			return mock(ObjectWriteResponse.class);
+		});
+
+		RenditionPipeline pipeline = new RenditionPipeline();
+		ReflectionTestUtils.setField(pipeline, "minioClient", minioClient);
+		try {
+			BufferedImage source = new BufferedImage(3000, 2000, BufferedImage.TYPE_INT_RGB);
+			assertThrows(IOException.class, () -> pipeline.render(UUID.randomUUID(), source, 1, "photo.jpg"));
+		} finally {
+			pipeline.shutdown();
+		}
+
+		verify(minioClient).removeObject(argThat((RemoveObjectArgs args) -> args.object().equals(RenditionType.LOW_RES.objectName("photo.jpg"))));
+		verify(minioClient, never()).removeObject(argThat((RemoveObjectArgs args) -> args.object().equals(RenditionType.HIGH_RES.objectName("photo.jpg"))));
+	}
+}
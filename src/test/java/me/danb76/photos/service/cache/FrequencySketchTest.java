@@ -0,0 +1,49 @@
+package me.danb76.photos.service.cache;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FrequencySketchTest {
+
+	@Test
+	void countsIncrementsPerKey() {
+		FrequencySketch sketch = new FrequencySketch(1024);
+		for (int i = 0; i < 5; i++) {
+			sketch.increment("popular");
+		}
+		sketch.increment("rare");
+
+		assertEquals(5, sketch.frequency("popular"));
+		assertEquals(1, sketch.frequency("rare"));
+		assertEquals(0, sketch.frequency("unseen"));
+	}
+
+	@Test
+	void countersSaturateAtFifteen() {
+		FrequencySketch sketch = new FrequencySketch(1024);
+		for (int i = 0; i < 100; i++) {
+			sketch.increment("popular");
+		}
+
+		assertEquals(15, sketch.frequency("popular"));
+	}
+
+	@Test
+	void countersAreHalvedOnceTheSampleIsFull() {
+		FrequencySketch sketch = new FrequencySketch(16);
+		for (int i = 0; i < 12; i++) {
+			sketch.increment("popular");
+		}
+		assertTrue(sketch.frequency("popular") >= 12);
+
+		int others = 0;
+		while (sketch.frequency("popular") >= 12 && others < 10_000) {
+			sketch.increment("other-" + others++);
+		}
+
+		int decayed = sketch.frequency("popular");
+		assertTrue(decayed >= 6 && decayed < 12, "frequency after reset was " + decayed);
+	}
+}
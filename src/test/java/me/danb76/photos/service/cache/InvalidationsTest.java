@@ -0,0 +1,37 @@
+package me.danb76.photos.service.cache;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InvalidationsTest {
+	private static final ObjectKey A = new ObjectKey("category", "480_a.jpg");
+	private static final ObjectKey B = new ObjectKey("category", "480_b.jpg");
+	private static final ObjectKey C = new ObjectKey("category", "480_c.jpg");
+
+	@Test
+	void fillIsStaleOnlyIfItsKeyWasInvalidatedAfterItStarted() {
+		Invalidations invalidations = new Invalidations(16);
+		invalidations.invalidate(A);
+		long started = invalidations.generation();
+
+		assertFalse(invalidations.isStale(A, started));
+		invalidations.invalidate(B);
+		assertFalse(invalidations.isStale(A, started));
+		assertTrue(invalidations.isStale(B, started));
+	}
+
+	@Test
+	void forgottenInvalidationsMakeOlderFillsStale() {
+		Invalidations invalidations = new Invalidations(1);
+		long started = invalidations.generation();
+		invalidations.invalidate(A);
+		invalidations.invalidate(B);
+
+		// A is no longer remembered, so every fill from before it is treated as stale.
+		assertTrue(invalidations.isStale(A, started));
+		assertTrue(invalidations.isStale(C, started));
+		assertFalse(invalidations.isStale(C, invalidations.generation()));
+	}
+}
@@ -0,0 +1,138 @@
+package me.danb76.photos.service.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import me.danb76.photos.service.RenditionType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RenditionCacheTest {
+	private static final String BUCKET = "category";
+
+	private RenditionCache cache;
+
+	@BeforeEach
+	void setUp() {
+		// Room for three 100 byte thumbnails.
+		cache = new RenditionCache(300, 100, Set.of(RenditionType.LOW_RES), new SimpleMeterRegistry());
+	}
+
+	@Test
+	void cachesRequestedThumbnails() throws IOException {
+		request("480_a.jpg", 1);
+		load("480_a.jpg", 100);
+
+		CachedObject cached = cache.get(BUCKET, "480_a.jpg");
+		assertNotNull(cached);
+		assertEquals(100, cached.getSize());
+		assertEquals(100, cache.getBytesInUse());
+	}
+
+	@Test
+	void ignoresOtherTypesAndOversizedEntries() throws IOException {
+		assertFalse(cache.accepts("1080_a.jpg", 10));
+		assertFalse(cache.accepts("480_a.jpg", 101));
+
+		load("480_big.jpg", 101);
+		assertNull(cache.get(BUCKET, "480_big.jpg"));
+		assertNull(cache.get(BUCKET, "1080_a.jpg"));
+		assertEquals(0, cache.getEntryCount());
+	}
+
+	@Test
+	void rejectsOneOffRequestThatWouldEvictPopularEntries() throws IOException {
+		fillWithPopularEntries();
+
+		request("480_d.jpg", 1);
+		assertFalse(cache.wouldAdmit(BUCKET, "480_d.jpg", 100));
+		load("480_d.jpg", 100);
+
+		assertEquals(3, cache.getEntryCount());
+		assertEquals(300, cache.getBytesInUse());
+		assertNull(cache.get(BUCKET, "480_d.jpg"));
+	}
+
+	@Test
+	void admitsEntryMorePopularThanTheLeastRecentlyUsed() throws IOException {
+		fillWithPopularEntries();
+
+		request("480_d.jpg", 5);
+		assertTrue(cache.wouldAdmit(BUCKET, "480_d.jpg", 100));
+		load("480_d.jpg", 100);
+
+		// b was the least recently used entry.
+		assertNotNull(cache.get(BUCKET, "480_d.jpg"));
+		assertNull(cache.get(BUCKET, "480_b.jpg"));
+		assertNotNull(cache.get(BUCKET, "480_a.jpg"));
+		assertNotNull(cache.get(BUCKET, "480_c.jpg"));
+		assertEquals(300, cache.getBytesInUse());
+	}
+
+	@Test
+	void invalidateReleasesTheEntry() throws IOException {
+		request("480_a.jpg", 1);
+		load("480_a.jpg", 100);
+
+		cache.invalidate(BUCKET, "480_a.jpg");
+
+		assertEquals(0, cache.getEntryCount());
+		assertEquals(0, cache.getBytesInUse());
+	}
+
+	@Test
+	void loadStartedBeforeAnInvalidationIsNotCached() throws IOException {
+		request("480_a.jpg", 1);
+		long generation = cache.generation();
+		cache.invalidate(BUCKET, "480_a.jpg");
+
+		ObjectMetadata metadata = new ObjectMetadata("etag", 0, "image/jpeg", 100);
+		CachedObject loaded = cache.load(BUCKET, "480_a.jpg", metadata, new ByteArrayInputStream(new byte[100]), generation);
+
+		assertEquals(100, loaded.getSize());
+		assertNull(cache.get(BUCKET, "480_a.jpg"));
+		assertEquals(0, cache.getBytesInUse());
+	}
+
+	@Test
+	void invalidatingAnotherObjectDoesNotDropALoad() throws IOException {
+		request("480_a.jpg", 1);
+		long generation = cache.generation();
+		cache.invalidate(BUCKET, "480_b.jpg");
+
+		ObjectMetadata metadata = new ObjectMetadata("etag", 0, "image/jpeg", 100);
+		cache.load(BUCKET, "480_a.jpg", metadata, new ByteArrayInputStream(new byte[100]), generation);
+
+		assertNotNull(cache.get(BUCKET, "480_a.jpg"));
+	}
+
+	// Caches a, b and c, each requested three times, with b least recently used.
+	private void fillWithPopularEntries() throws IOException {
+		for (String name : new String[]{"480_a.jpg", "480_b.jpg", "480_c.jpg"}) {
+			request(name, 1);
+			load(name, 100);
+		}
+		for (String name : new String[]{"480_b.jpg", "480_c.jpg", "480_a.jpg"}) {
+			request(name, 2);
+		}
+	}
+
+	private void request(String objectName, int times) {
+		for (int i = 0; i < times; i++) {
+			cache.get(BUCKET, objectName);
+		}
+	}
+
+	private void load(String objectName, int size) throws IOException {
+		ObjectMetadata metadata = new ObjectMetadata("etag", 0, "image/jpeg", size);
+		cache.load(BUCKET, objectName, metadata, new ByteArrayInputStream(new byte[size]), cache.generation());
+	}
+}
@@ -0,0 +1,70 @@
+package me.danb76.photos.service.image;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Reference hashes were produced by a separate port of the woltapp/blurhash C encoder
+ * (encode.c) over the same pixels.
+ */
+class BlurHashTest {
+	private static final int WIDTH = 8;
+	private static final int HEIGHT = 6;
+
+	@Test
+	void encodesSolidColourDc() {
+		// Size flag 0, maximum 0, then 0xFFFFFF in four base 83 digits.
+		assertEquals("00TSUA", BlurHash.encode(fill((x, y) -> 0xFFFFFF), 1, 1));
+	}
+
+	@Test
+	void matchesReferenceForSolidColour() {
+		// The reference basis sums to one rather than zero over odd frequencies, so even a flat
+		// image has AC components.
+		assertEquals("LsTSUA_3fQ_3~qt7fQt7fQfQfQfQ", BlurHash.encode(fill((x, y) -> 0xFFFFFF), 4, 3));
+	}
+
+	@Test
+	void matchesReferenceForHardEdge() {
+		assertEquals("L~LjfL|T,SST$A$1sRb0fQfQfQfQ",
+				BlurHash.encode(fill((x, y) -> x < WIDTH / 2 ? 0xFF0000 : 0x0000FF), 4, 3));
+	}
+
+	@Test
+	void matchesReferenceForGradient() {
+		assertEquals("LyI5er3AfQxtz4NKfQnSeXf7fQf7",
+				BlurHash.encode(fill((x, y) -> (x * 255 / (WIDTH - 1)) << 16 | (y * 255 / (HEIGHT - 1)) << 8 | 128), 4, 3));
+	}
+
+	@Test
+	void lengthFollowsComponentCount() {
+		BufferedImage image = fill((x, y) -> x * 31 << 8 | y * 41);
+		assertEquals(4 + 2 * 3 * 4, BlurHash.encode(image, 3, 4).length());
+		assertEquals(4 + 2 * 9 * 9, BlurHash.encode(image, 9, 9).length());
+	}
+
+	@Test
+	void rejectsComponentsOutOfRange() {
+		BufferedImage image = fill((x, y) -> 0);
+		assertThrows(IllegalArgumentException.class, () -> BlurHash.encode(image, 0, 3));
+		assertThrows(IllegalArgumentException.class, () -> BlurHash.encode(image, 4, 10));
+	}
+
+	private static BufferedImage fill(Pixels pixels) {
+		BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				image.setRGB(x, y, pixels.rgb(x, y));
+			}
+		}
+		return image;
+	}
+
+	private interface Pixels {
+		int rgb(int x, int y);
+	}
+}
@@ -0,0 +1,146 @@
+package me.danb76.photos.service.image;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.time.OffsetDateTime;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ExifReaderTest {
+	private static final ExifData EXPECTED = new ExifData(
+			OffsetDateTime.parse("2024-05-01T12:30:00+02:00").toInstant().toEpochMilli(), 6,
+			"Canon", "Canon EOS R5", "RF50mm F1.8 STM", "1/250", 2.8, 400, 50.0);
+
+	@Test
+	void readsBigEndianExif() throws IOException {
+		assertEquals(EXPECTED, read(TiffBuilder.jpegWithExif(tiff(ByteOrder.BIG_ENDIAN))));
+	}
+
+	@Test
+	void readsLittleEndianExif() throws IOException {
+		assertEquals(EXPECTED, read(TiffBuilder.jpegWithExif(tiff(ByteOrder.LITTLE_ENDIAN))));
+	}
+
+	@Test
+	void readsTiffBasedRawDirectly() throws IOException {
+		assertEquals(EXPECTED, read(tiff(ByteOrder.BIG_ENDIAN)));
+		assertEquals(EXPECTED, read(tiff(ByteOrder.LITTLE_ENDIAN)));
+	}
+
+	@Test
+	void skipsNonExifApp1Segments() throws IOException {
+		byte[] exif = TiffBuilder.jpegWithExif(tiff(ByteOrder.BIG_ENDIAN));
+		byte[] xmp = {(byte) 0xFF, (byte) 0xE1, 0, 8, 'h', 't', 't', 'p', ':', '/'};
+		byte[] jpeg = new byte[exif.length + xmp.length];
+		System.arraycopy(exif, 0, jpeg, 0, 2);
+		System.arraycopy(xmp, 0, jpeg, 2, xmp.length);
+		System.arraycopy(exif, 2, jpeg, 2 + xmp.length, exif.length - 2);
+
+		assertEquals(EXPECTED, read(jpeg));
+	}
+
+	@Test
+	void fallsBackWithoutExif() throws IOException {
+		assertSame(ExifData.EMPTY, read(new byte[0]));
+		assertSame(ExifData.EMPTY, read(new byte[]{'G', 'I', 'F', '8'}));
+		assertSame(ExifData.EMPTY, read(new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xDA}));
+	}
+
+	@Test
+	void truncatedJpegSegmentIsIgnored() throws IOException {
+		byte[] jpeg = TiffBuilder.jpegWithExif(tiff(ByteOrder.BIG_ENDIAN));
+		for (int length = 0; length < jpeg.length - 4; length++) {
+			assertSame(ExifData.EMPTY, read(Arrays.copyOf(jpeg, length)), "truncated to " + length);
+		}
+	}
+
+	@Test
+	void truncatedTiffNeverFailsTheRead() throws IOException {
+		for (ByteOrder order : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+			byte[] tiff = tiff(order);
+			for (int length = 0; length < tiff.length; length++) {
+				byte[] truncated = Arrays.copyOf(tiff, length);
+				// A complete APP1 segment around a cut-off TIFF, and a cut-off RAW file.
+				for (byte[] input : new byte[][]{TiffBuilder.jpegWithExif(truncated), truncated}) {
+					ExifData data = read(input);
+					assertTrue(data.orientation() >= 1 && data.orientation() <= 8);
+				}
+			}
+		}
+	}
+
+	@Test
+	void valuesPastTheEndAreDropped() throws IOException {
+		byte[] tiff = tiff(ByteOrder.BIG_ENDIAN);
+		// Cut inside the out-of-line values of the EXIF directory, after both directories.
+		ExifData data = read(Arrays.copyOf(tiff, tiff.length - 4));
+
+		assertEquals(6, data.orientation());
+		assertEquals("Canon", data.make());
+		assertNull(data.lens());
+	}
+
+	@Test
+	void ignoresInvalidOrientation() throws IOException {
+		byte[] tiff = new TiffBuilder(ByteOrder.BIG_ENDIAN).ifd().shortValue(0x0112, 9).build();
+
+		assertEquals(1, read(tiff).orientation());
+	}
+
+	@Test
+	void runOfFillBytesStopsAtTheHeaderLimit() throws IOException {
+		// SOI, then nothing but 0xFF fill bytes for longer than the reader may look.
+		byte[] jpeg = new byte[ExifReader.MAX_HEADER_BYTES + 1024];
+		Arrays.fill(jpeg, (byte) 0xFF);
+		jpeg[1] = (byte) 0xD8;
+
+		BufferedInputStream input = new BufferedInputStream(new ByteArrayInputStream(jpeg), 8192);
+		input.mark(ExifReader.MAX_HEADER_BYTES);
+		assertSame(ExifData.EMPTY, ExifReader.read(input));
+		input.reset();
+		assertEquals(0xFF, input.read());
+	}
+
+	@Test
+	void neverReadsPastTheHeaderLimit() throws IOException {
+		// A segment header straddling the limit: its length field must not be read.
+		byte[] jpeg = new byte[ExifReader.MAX_HEADER_BYTES + 1024];
+		Arrays.fill(jpeg, (byte) 0xFF);
+		jpeg[1] = (byte) 0xD8;
+		jpeg[ExifReader.MAX_HEADER_BYTES - 1] = (byte) 0xE0;
+
+		ByteArrayInputStream input = new ByteArrayInputStream(jpeg);
+		assertSame(ExifData.EMPTY, ExifReader.read(input));
+		assertTrue(jpeg.length - input.available() <= ExifReader.MAX_HEADER_BYTES);
+	}
+
+	private static ExifData read(byte[] bytes) throws IOException {
+		return ExifReader.read(new ByteArrayInputStream(bytes));
+	}
+
+	private static byte[] tiff(ByteOrder order) {
+		return new TiffBuilder(order)
+				.ifd()
+				.ascii(0x010F, "Canon")
+				.ascii(0x0110, "Canon EOS R5")
+				.shortValue(0x0112, 6)
+				.pointer(0x8769, 1)
+				.subIfd()
+				.rational(0x829A, 1, 250)
+				.rational(0x829D, 28, 10)
+				.shortValue(0x8827, 400)
+				.ascii(0x9003, "2024:05:01 12:30:00")
+				.ascii(0x9011, "+02:00")
+				.rational(0x920A, 50, 1)
+				.ascii(0xA434, "RF50mm F1.8 STM")
+				.build();
+	}
+}
@@ -0,0 +1,35 @@
+package me.danb76.photos.service.image;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageTypeSpecifier;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ImageDecoderTest {
+
+	@Test
+	void countsBytesOfTheDestinationRaster() {
+		assertEquals(4, ImageDecoder.bytesPerPixel(ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_INT_RGB)));
+		assertEquals(3, ImageDecoder.bytesPerPixel(ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_3BYTE_BGR)));
+		assertEquals(1, ImageDecoder.bytesPerPixel(ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_BYTE_INDEXED)));
+		assertEquals(1, ImageDecoder.bytesPerPixel(ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_BYTE_GRAY)));
+	}
+
+	@Test
+	void countsSixteenBitSamplesAsTwoBytes() {
+		ImageTypeSpecifier rgb48 = ImageTypeSpecifier.createInterleaved(ColorSpace.getInstance(ColorSpace.CS_sRGB),
+				new int[]{0, 1, 2}, DataBuffer.TYPE_USHORT, false, false);
+
+		assertEquals(6, ImageDecoder.bytesPerPixel(rgb48));
+	}
+
+	@Test
+	void assumesFourBytesWhenTheTypeIsUnknown() {
+		assertEquals(4, ImageDecoder.bytesPerPixel(null));
+		assertEquals(4L * 50 * 25, ImageDecoder.estimateRasterBytes(null, 100, 50, 2));
+	}
+}
@@ -0,0 +1,90 @@
+package me.danb76.photos.service.image;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class OrientationRewriterTest {
+	// Start of scan, a few bytes of entropy-coded data and end of image.
+	private static final byte[] SCAN = {(byte) 0xFF, (byte) 0xDA, 0, 4, 1, 2, 3, 4, 5, (byte) 0xFF, (byte) 0xD9};
+	// An APP0 JFIF segment.
+	private static final byte[] JFIF = {(byte) 0xFF, (byte) 0xE0, 0, 7, 'J', 'F', 'I', 'F', 0};
+
+	@Test
+	void patchesTheExistingOrientation() throws IOException {
+		for (ByteOrder order : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+			byte[] tiff = new TiffBuilder(order).ifd()
+					.ascii(0x010F, "Canon")
+					.shortValue(0x0112, 1)
+					.build();
+			byte[] exif = TiffBuilder.jpegWithExif(tiff);
+			// Replace the empty scan jpegWithExif ends with.
+			byte[] jpeg = concat(Arrays.copyOf(exif, exif.length - 4), SCAN);
+
+			byte[] rotated = rewrite(jpeg, 6);
+
+			assertEquals(jpeg.length, rotated.length);
+			ExifData data = ExifReader.read(new ByteArrayInputStream(rotated));
+			assertEquals(6, data.orientation());
+			assertEquals("Canon", data.make());
+			assertArrayEquals(SCAN, Arrays.copyOfRange(rotated, rotated.length - SCAN.length, rotated.length));
+		}
+	}
+
+	@Test
+	void insertsAnExifSegmentWhenThereIsNone() throws IOException {
+		byte[] jpeg = concat(new byte[]{(byte) 0xFF, (byte) 0xD8}, JFIF, SCAN);
+
+		byte[] rotated = rewrite(jpeg, 8);
+
+		assertEquals(8, ExifReader.read(new ByteArrayInputStream(rotated)).orientation());
+		// The JFIF segment stays first and the scan is passed through after the new segment.
+		assertArrayEquals(concat(new byte[]{(byte) 0xFF, (byte) 0xD8}, JFIF), Arrays.copyOf(rotated, 2 + JFIF.length));
+		assertArrayEquals(SCAN, Arrays.copyOfRange(rotated, rotated.length - SCAN.length, rotated.length));
+	}
+
+	@Test
+	void givesUpWithoutAnOrientationEntryToPatch() throws IOException {
+		byte[] tiff = new TiffBuilder(ByteOrder.BIG_ENDIAN).ifd().ascii(0x010F, "Canon").build();
+
+		assertNull(OrientationRewriter.rewrite(new ByteArrayInputStream(TiffBuilder.jpegWithExif(tiff)), 6));
+	}
+
+	@Test
+	void givesUpOnNonJpegAndTruncatedInput() throws IOException {
+		assertNull(OrientationRewriter.rewrite(new ByteArrayInputStream(new byte[]{'G', 'I', 'F', '8'}), 6));
+		assertNull(OrientationRewriter.rewrite(new ByteArrayInputStream(Arrays.copyOf(JFIF, 5)), 6));
+		assertNull(OrientationRewriter.rewrite(new ByteArrayInputStream(new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0, 0}), 6));
+	}
+
+	// Writes the rewritten header followed by the rest of the stream, as PhotoController does.
+	private static byte[] rewrite(byte[] jpeg, int orientation) throws IOException {
+		ByteArrayInputStream input = new ByteArrayInputStream(jpeg);
+		OrientationRewriter.Header header = OrientationRewriter.rewrite(input, orientation);
+		assertNotNull(header);
+
+		assertEquals(jpeg.length - input.available(), header.consumed());
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(header.bytes());
+		input.transferTo(out);
+		return out.toByteArray();
+	}
+
+	private static byte[] concat(byte[]... parts) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (byte[] part : parts) {
+			out.writeBytes(part);
+		}
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,64 @@
+package me.danb76.photos.service.image;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class OrientationTest {
+
+	@Test
+	void composeFollowsTheExifTable() {
+		assertEquals(6, Orientation.compose(1, 1));
+		assertEquals(3, Orientation.compose(6, 1));
+		assertEquals(8, Orientation.compose(1, -1));
+		assertEquals(1, Orientation.compose(8, 1));
+		assertEquals(7, Orientation.compose(2, 1));
+		assertEquals(4, Orientation.compose(2, 2));
+		assertEquals(5, Orientation.compose(4, 1));
+		assertEquals(4, Orientation.compose(7, 5));
+	}
+
+	@Test
+	void composeTreatsUnknownOrientationAsUpright() {
+		assertEquals(1, Orientation.compose(0, 0));
+		assertEquals(6, Orientation.compose(9, 1));
+	}
+
+	@Test
+	void composedOrientationShowsTheSamePixelsAsRotatingAfterwards() {
+		BufferedImage image = new BufferedImage(3, 2, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < 2; y++) {
+			for (int x = 0; x < 3; x++) {
+				image.setRGB(x, y, y * 3 + x);
+			}
+		}
+
+		for (int orientation = 1; orientation <= 8; orientation++) {
+			for (int quarterTurns = -4; quarterTurns <= 4; quarterTurns++) {
+				BufferedImage expected = Orientation.rotate(Orientation.apply(image, orientation), quarterTurns);
+				BufferedImage actual = Orientation.apply(image, Orientation.compose(orientation, quarterTurns));
+				assertArrayEquals(pixels(expected), pixels(actual), orientation + " turned " + quarterTurns);
+			}
+		}
+	}
+
+	@Test
+	void swapsDimensionsForQuarterTurns() {
+		for (int orientation = 1; orientation <= 8; orientation++) {
+			BufferedImage turned = Orientation.apply(new BufferedImage(3, 2, BufferedImage.TYPE_INT_RGB), orientation);
+			assertEquals(turned.getWidth() == 2, Orientation.swapsDimensions(orientation));
+		}
+	}
+
+	private static int[] pixels(BufferedImage image) {
+		int[] size = {image.getWidth(), image.getHeight()};
+		int[] rgb = image.getRGB(0, 0, size[0], size[1], null, 0, size[0]);
+		int[] pixels = new int[rgb.length + 2];
+		System.arraycopy(size, 0, pixels, 0, 2);
+		System.arraycopy(rgb, 0, pixels, 2, rgb.length);
+		return pixels;
+	}
+}
@@ -0,0 +1,139 @@
+package me.danb76.photos.service.image;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RawPreviewTest {
+	private static final byte[] PREVIEW = jpeg(100);
+	private static final byte[] THUMBNAIL = jpeg(20);
+
+	@Test
+	void recognisesCr2Files() {
+		assertTrue(RawPreview.isRaw("IMG_0001.CR2"));
+		assertTrue(RawPreview.isRaw("img_0001.cr2"));
+		assertFalse(RawPreview.isRaw("IMG_0001.JPG"));
+	}
+
+	@Test
+	void locatesTheFullSizePreviewInIfd0() throws IOException {
+		byte[] cr2 = new TiffBuilder(ByteOrder.LITTLE_ENDIAN)
+				.ifd()
+				.shortValue(0x0103, 6)
+				.dataOffset(0x0111, PREVIEW)
+				.longValue(0x0117, PREVIEW.length)
+				.ifd()
+				.dataOffset(0x0201, THUMBNAIL)
+				.longValue(0x0202, THUMBNAIL.length)
+				.build();
+
+		RawPreview.Location location = RawPreview.locate(new TiffReader(ByteBuffer.wrap(cr2)));
+
+		assertEquals(PREVIEW.length, location.length());
+		assertArrayEquals(PREVIEW, Arrays.copyOfRange(cr2, (int) location.offset(), (int) (location.offset() + location.length())));
+		assertArrayEquals(PREVIEW, RawPreview.extract(new ByteArrayInputStream(cr2)));
+	}
+
+	@Test
+	void fallsBackToTheIfd1ThumbnailWhenIfd0IsNotJpeg() throws IOException {
+		byte[] cr2 = new TiffBuilder(ByteOrder.LITTLE_ENDIAN)
+				.ifd()
+				// Uncompressed strips, as in CR2 files that keep raw data in IFD0.
+				.shortValue(0x0103, 1)
+				.dataOffset(0x0111, PREVIEW)
+				.longValue(0x0117, PREVIEW.length)
+				.ifd()
+				.dataOffset(0x0201, THUMBNAIL)
+				.longValue(0x0202, THUMBNAIL.length)
+				.build();
+
+		RawPreview.Location location = RawPreview.locate(new TiffReader(ByteBuffer.wrap(cr2)));
+
+		assertEquals(THUMBNAIL.length, location.length());
+		assertArrayEquals(THUMBNAIL, RawPreview.extract(new ByteArrayInputStream(cr2)));
+	}
+
+	@Test
+	void fallsBackWhenTheIfd0PreviewIsImplausible() throws IOException {
+		byte[] cr2 = new TiffBuilder(ByteOrder.BIG_ENDIAN)
+				.ifd()
+				.shortValue(0x0103, 6)
+				.longValue(0x0111, 8)
+				// A 2 GB strip, far beyond any real preview.
+				.longValue(0x0117, 1L << 31)
+				.ifd()
+				.dataOffset(0x0201, THUMBNAIL)
+				.longValue(0x0202, THUMBNAIL.length)
+				.build();
+
+		assertEquals(THUMBNAIL.length, RawPreview.locate(new TiffReader(ByteBuffer.wrap(cr2))).length());
+	}
+
+	@Test
+	void findsNothingWithoutAPreview() throws IOException {
+		byte[] noIfd1 = new TiffBuilder(ByteOrder.LITTLE_ENDIAN)
+				.ifd().shortValue(0x0103, 1)
+				.build();
+		byte[] emptyIfd1 = new TiffBuilder(ByteOrder.LITTLE_ENDIAN)
+				.ifd().shortValue(0x0103, 1)
+				.ifd().shortValue(0x0112, 1)
+				.build();
+
+		assertNull(RawPreview.locate(new TiffReader(ByteBuffer.wrap(noIfd1))));
+		assertNull(RawPreview.locate(new TiffReader(ByteBuffer.wrap(emptyIfd1))));
+		assertNull(RawPreview.extract(new ByteArrayInputStream(emptyIfd1)));
+		assertNull(RawPreview.extract(new ByteArrayInputStream(new byte[]{(byte) 0xFF, (byte) 0xD8})));
+	}
+
+	@Test
+	void readsPreviewsBeyondTheHeader() throws IOException {
+		int offset = RawPreview.HEADER_BYTES + 1000;
+		byte[] directories = new TiffBuilder(ByteOrder.LITTLE_ENDIAN)
+				.ifd()
+				.shortValue(0x0103, 6)
+				.longValue(0x0111, offset)
+				.longValue(0x0117, PREVIEW.length)
+				.build();
+		byte[] cr2 = Arrays.copyOf(directories, offset + PREVIEW.length + 50);
+		System.arraycopy(PREVIEW, 0, cr2, offset, PREVIEW.length);
+
+		ByteArrayInputStream input = new ByteArrayInputStream(cr2);
+		assertArrayEquals(PREVIEW, RawPreview.extract(input));
+		// Only read as far as the end of the preview.
+		assertEquals(50, input.available());
+
+		assertThrows(EOFException.class, () -> RawPreview.extract(new ByteArrayInputStream(Arrays.copyOf(cr2, offset + 10))));
+	}
+
+	@Test
+	void rejectsPreviewsThatAreNotJpeg() throws IOException {
+		byte[] cr2 = new TiffBuilder(ByteOrder.LITTLE_ENDIAN)
+				.ifd()
+				.shortValue(0x0103, 6)
+				.dataOffset(0x0111, new byte[100])
+				.longValue(0x0117, 100)
+				.build();
+
+		assertNull(RawPreview.extract(new ByteArrayInputStream(cr2)));
+	}
+
+	private static byte[] jpeg(int length) {
+		byte[] jpeg = new byte[length];
+		Arrays.fill(jpeg, (byte) length);
+		jpeg[0] = (byte) 0xFF;
+		jpeg[1] = (byte) 0xD8;
+		return jpeg;
+	}
+}
@@ -0,0 +1,169 @@
+package me.danb76.photos.service.image;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Builds small TIFF structures for tests. Directories added with {@link #ifd()} are chained
+ * through their next-directory offsets; those added with {@link #subIfd()} are only reachable
+ * through a {@link #pointer}. Values are laid out after their directory, data blocks at the end.
+ */
+final class TiffBuilder {
+	private record Field(int tag, int type, int count, byte[] value, int directory, byte[] data) {
+	}
+
+	private final ByteOrder order;
+	private final List<List<Field>> directories = new ArrayList<>();
+	private final List<Boolean> chained = new ArrayList<>();
+
+	TiffBuilder(ByteOrder order) {
+		this.order = order;
+	}
+
+	TiffBuilder ifd() {
+		directories.add(new ArrayList<>());
+		chained.add(true);
+		return this;
+	}
+
+	TiffBuilder subIfd() {
+		directories.add(new ArrayList<>());
+		chained.add(false);
+		return this;
+	}
+
+	TiffBuilder ascii(int tag, String value) {
+		byte[] bytes = (value + "\0").getBytes(StandardCharsets.US_ASCII);
+		return add(new Field(tag, TiffReader.TYPE_ASCII, bytes.length, bytes, -1, null));
+	}
+
+	TiffBuilder shortValue(int tag, int value) {
+		return add(new Field(tag, TiffReader.TYPE_SHORT, 1, buffer(2).putShort((short) value).array(), -1, null));
+	}
+
+	TiffBuilder longValue(int tag, long value) {
+		return add(new Field(tag, TiffReader.TYPE_LONG, 1, buffer(4).putInt((int) value).array(), -1, null));
+	}
+
+	TiffBuilder rational(int tag, long numerator, long denominator) {
+		byte[] value = buffer(8).putInt((int) numerator).putInt((int) denominator).array();
+		return add(new Field(tag, TiffReader.TYPE_RATIONAL, 1, value, -1, null));
+	}
+
+	/**
+	 * A LONG entry holding the offset of directory {@code directory}, counted in the order added.
+	 */
+	TiffBuilder pointer(int tag, int directory) {
+		return add(new Field(tag, TiffReader.TYPE_LONG, 1, null, directory, null));
+	}
+
+	/**
+	 * A LONG entry holding the offset at which {@code data} is written.
+	 */
+	TiffBuilder dataOffset(int tag, byte[] data) {
+		return add(new Field(tag, TiffReader.TYPE_LONG, 1, null, -1, data));
+	}
+
+	byte[] build() {
+		int offset = 8;
+		int[] directoryOffsets = new int[directories.size()];
+		for (int d = 0; d < directories.size(); d++) {
+			directoryOffsets[d] = offset;
+			offset += 2 + directories.get(d).size() * 12 + 4;
+			for (Field field : directories.get(d)) {
+				if (field.value() != null && field.value().length > 4) {
+					offset += even(field.value().length);
+				}
+			}
+		}
+		int dataStart = offset;
+		for (List<Field> directory : directories) {
+			for (Field field : directory) {
+				if (field.data() != null) {
+					offset += even(field.data().length);
+				}
+			}
+		}
+
+		ByteBuffer out = ByteBuffer.allocate(offset).order(order);
+		out.put(0, order == ByteOrder.LITTLE_ENDIAN ? new byte[]{'I', 'I'} : new byte[]{'M', 'M'});
+		out.putShort(2, (short) 42);
+		out.putInt(4, directories.isEmpty() ? 0 : directoryOffsets[0]);
+
+		int dataPosition = dataStart;
+		for (int d = 0; d < directories.size(); d++) {
+			List<Field> fields = new ArrayList<>(directories.get(d));
+			fields.sort(Comparator.comparingInt(Field::tag));
+			int position = directoryOffsets[d];
+			int valuePosition = position + 2 + fields.size() * 12 + 4;
+
+			out.putShort(position, (short) fields.size());
+			for (int i = 0; i < fields.size(); i++) {
+				Field field = fields.get(i);
+				int entry = position + 2 + i * 12;
+				out.putShort(entry, (short) field.tag());
+				out.putShort(entry + 2, (short) field.type());
+				out.putInt(entry + 4, field.count());
+				if (field.directory() >= 0) {
+					out.putInt(entry + 8, directoryOffsets[field.directory()]);
+				} else if (field.data() != null) {
+					out.putInt(entry + 8, dataPosition);
+					out.put(dataPosition, field.data());
+					dataPosition += even(field.data().length);
+				} else if (field.value().length <= 4) {
+					out.put(entry + 8, field.value());
+				} else {
+					out.putInt(entry + 8, valuePosition);
+					out.put(valuePosition, field.value());
+					valuePosition += even(field.value().length);
+				}
+			}
+			out.putInt(position + 2 + fields.size() * 12, nextChained(d, directoryOffsets));
+		}
+		return out.array();
+	}
+
+	/**
+	 * Wraps a TIFF structure in the APP1 segment of an otherwise empty JPEG.
+	 */
+	static byte[] jpegWithExif(byte[] tiff) {
+		ByteBuffer jpeg = ByteBuffer.allocate(2 + 4 + 6 + tiff.length + 4);
+		jpeg.putShort((short) 0xFFD8);
+		jpeg.putShort((short) 0xFFE1);
+		jpeg.putShort((short) (2 + 6 + tiff.length));
+		jpeg.put(new byte[]{'E', 'x', 'i', 'f', 0, 0});
+		jpeg.put(tiff);
+		jpeg.putShort((short) 0xFFDA);
+		jpeg.putShort((short) 0xFFD9);
+		return jpeg.array();
+	}
+
+	private int nextChained(int directory, int[] directoryOffsets) {
+		if (!chained.get(directory)) {
+			return 0;
+		}
+		for (int d = directory + 1; d < directories.size(); d++) {
+			if (chained.get(d)) {
+				return directoryOffsets[d];
+			}
+		}
+		return 0;
+	}
+
+	private TiffBuilder add(Field field) {
+		directories.get(directories.size() - 1).add(field);
+		return this;
+	}
+
+	private ByteBuffer buffer(int size) {
+		return ByteBuffer.allocate(size).order(order);
+	}
+
+	private static int even(int length) {
+		return length + (length & 1);
+	}
+}
@@ -0,0 +1,100 @@
+package me.danb76.photos.service.image;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TiffReaderTest {
+
+	@Test
+	void readsBigEndianValues() throws IOException {
+		byte[] tiff = new TiffBuilder(ByteOrder.BIG_ENDIAN)
+				.ifd()
+				.shortValue(0x0112, 3)
+				.longValue(0x0201, 0x01020304L)
+				.rational(0x829A, 1, 250)
+				.ascii(0x010F, "Nikon")
+				.build();
+		assertArrayEquals(new byte[]{'M', 'M', 0, 42}, Arrays.copyOf(tiff, 4));
+
+		TiffReader reader = new TiffReader(ByteBuffer.wrap(tiff));
+		Map<Integer, TiffReader.Entry> ifd0 = reader.readDirectory(reader.firstDirectoryOffset());
+
+		assertEquals(ByteOrder.BIG_ENDIAN, reader.order());
+		assertEquals(3, reader.getInteger(ifd0.get(0x0112), 0));
+		assertEquals(0x01020304L, reader.getInteger(ifd0.get(0x0201), 0));
+		assertArrayEquals(new long[]{1, 250}, reader.getRational(ifd0.get(0x829A)));
+		assertEquals("Nikon", reader.getString(ifd0.get(0x010F)));
+	}
+
+	@Test
+	void readsLittleEndianValues() throws IOException {
+		byte[] tiff = new TiffBuilder(ByteOrder.LITTLE_ENDIAN)
+				.ifd()
+				.shortValue(0x0112, 3)
+				.longValue(0x0201, 0x01020304L)
+				.build();
+
+		TiffReader reader = new TiffReader(ByteBuffer.wrap(tiff));
+		Map<Integer, TiffReader.Entry> ifd0 = reader.readDirectory(reader.firstDirectoryOffset());
+
+		assertEquals(ByteOrder.LITTLE_ENDIAN, reader.order());
+		assertEquals(3, reader.getInteger(ifd0.get(0x0112), 0));
+		assertEquals(0x01020304L, reader.getInteger(ifd0.get(0x0201), 0));
+	}
+
+	@Test
+	void followsTheDirectoryChain() throws IOException {
+		byte[] tiff = new TiffBuilder(ByteOrder.BIG_ENDIAN)
+				.ifd().shortValue(0x0112, 1)
+				.ifd().shortValue(0x0112, 8)
+				.build();
+
+		TiffReader reader = new TiffReader(ByteBuffer.wrap(tiff));
+		int ifd1 = reader.nextDirectoryOffset(reader.firstDirectoryOffset());
+
+		assertEquals(8, reader.getInteger(reader.readDirectory(ifd1).get(0x0112), 0));
+		assertEquals(0, reader.nextDirectoryOffset(ifd1));
+	}
+
+	@Test
+	void rejectsInvalidHeaders() {
+		assertThrows(IOException.class, () -> new TiffReader(ByteBuffer.wrap(new byte[]{'M', 'M', 0, 42})));
+		assertThrows(IOException.class, () -> new TiffReader(ByteBuffer.wrap(new byte[]{'X', 'X', 0, 42, 0, 0, 0, 8})));
+		assertThrows(IOException.class, () -> new TiffReader(ByteBuffer.wrap(new byte[]{'M', 'M', 0, 43, 0, 0, 0, 8})));
+	}
+
+	@Test
+	void truncatedDirectoryThrows() throws IOException {
+		byte[] tiff = new TiffBuilder(ByteOrder.BIG_ENDIAN)
+				.ifd().shortValue(0x0112, 6).longValue(0x0201, 1)
+				.build();
+		// Header, entry count and the first entry only.
+		TiffReader reader = new TiffReader(ByteBuffer.wrap(tiff, 0, 8 + 2 + 12));
+
+		assertThrows(IOException.class, () -> reader.readDirectory(reader.firstDirectoryOffset()));
+		assertThrows(IOException.class, () -> reader.nextDirectoryOffset(reader.firstDirectoryOffset()));
+	}
+
+	@Test
+	void dropsEntriesWhoseValuesLieOutsideTheData() throws IOException {
+		byte[] tiff = new TiffBuilder(ByteOrder.BIG_ENDIAN)
+				.ifd().shortValue(0x0112, 6).ascii(0x010F, "A long camera make")
+				.build();
+		// Keep both entries and the next offset, lose the string they point to.
+		TiffReader reader = new TiffReader(ByteBuffer.wrap(Arrays.copyOf(tiff, 8 + 2 + 2 * 12 + 4)));
+		Map<Integer, TiffReader.Entry> ifd0 = reader.readDirectory(reader.firstDirectoryOffset());
+
+		assertEquals(6, reader.getInteger(ifd0.get(0x0112), 0));
+		assertFalse(ifd0.containsKey(0x010F));
+	}
+}